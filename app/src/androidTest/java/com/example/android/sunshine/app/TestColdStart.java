@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Starts MainActivity a few times over and measures how long it takes to draw its first frame,
+    and then the forecast, both with and without the rows kept from the last start.  The averages
+    are logged under TestColdStart.
+
+    The test runs in the app's process, so the process itself is already up and it's the start of
+    the activity that's measured.  For the start of the process too, run
+    "adb shell am start -W" against a stopped app, which reports the first frame, and look for
+    the "Fully drawn" line MainActivity reports once the forecast is shown.
+ */
+public class TestColdStart extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestColdStart.class.getSimpleName();
+
+    private static final int RUNS = 5;
+    private static final int FORECAST_TIMEOUT = 10000;
+
+    public TestColdStart() {
+        super(MainActivity.class);
+    }
+
+    public void testStartupTimes() {
+        long[] uncached = measureStarts(true);
+        long[] cached = measureStarts(false);
+        Log.d(LOG_TAG, "Without the rows from the last start: first frame " + uncached[0] +
+                "ms, forecast " + uncached[1] + "ms");
+        Log.d(LOG_TAG, "With the rows from the last start: first frame " + cached[0] +
+                "ms, forecast " + cached[1] + "ms");
+    }
+
+    // Returns the average times to the first frame and to the forecast
+    private long[] measureStarts(boolean clearCache) {
+        Instrumentation instrumentation = getInstrumentation();
+        long firstFrame = 0;
+        long fullList = 0;
+        for (int i = 0; i < RUNS; i++) {
+            if (clearCache) {
+                ForecastCache.clear();
+            }
+            Intent intent = new Intent(Intent.ACTION_MAIN)
+                    .setClass(instrumentation.getTargetContext(), MainActivity.class)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            final MainActivity activity =
+                    (MainActivity) instrumentation.startActivitySync(intent);
+            new PollingCheck(FORECAST_TIMEOUT) {
+                @Override
+                protected boolean check() {
+                    return activity.getTimeToFullList() != -1;
+                }
+            }.run();
+
+            assertTrue("Error: The first frame should have been drawn before the forecast",
+                    activity.getTimeToFirstFrame() != -1 &&
+                            activity.getTimeToFirstFrame() <= activity.getTimeToFullList());
+            firstFrame += activity.getTimeToFirstFrame();
+            fullList += activity.getTimeToFullList();
+
+            activity.finish();
+            instrumentation.waitForIdleSync();
+        }
+        return new long[]{firstFrame / RUNS, fullList / RUNS};
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+public class TestDayFormatter extends AndroidTestCase {
+
+    private Locale mLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        super.tearDown();
+    }
+
+    // Midnight of the day the given number of days from today, as the database returns it
+    private static long getDay(int daysFromToday) {
+        return WeatherContract.fromEpochDay(
+                WeatherContract.toEpochDay(System.currentTimeMillis()) + daysFromToday);
+    }
+
+    public void testFriendlyDayStrings() {
+        String today = mContext.getString(R.string.today);
+        String tomorrow = mContext.getString(R.string.tomorrow);
+        long now = System.currentTimeMillis();
+
+        assertEquals(today, Utility.getDayName(mContext, now));
+        assertEquals(today, Utility.getDayName(mContext, getDay(0)));
+        assertEquals(tomorrow, Utility.getDayName(mContext, getDay(1)));
+        assertEquals(new SimpleDateFormat("EEEE").format(getDay(2)),
+                Utility.getDayName(mContext, getDay(2)));
+
+        String monthDay = new SimpleDateFormat("MMMM dd").format(getDay(0));
+        assertEquals(monthDay, Utility.getFormattedMonthDay(mContext, getDay(0)));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, today, monthDay),
+                Utility.getFriendlyDayString(mContext, getDay(0), true));
+        assertEquals(today, Utility.getFriendlyDayString(mContext, getDay(0), false));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, tomorrow,
+                new SimpleDateFormat("MMMM dd").format(getDay(1))),
+                Utility.getFullFriendlyDayString(mContext, getDay(1)));
+
+        // Day names for the week ahead, and a short date after that
+        assertEquals(Utility.getDayName(mContext, getDay(6)),
+                Utility.getFriendlyDayString(mContext, getDay(6), true));
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(getDay(7)),
+                Utility.getFriendlyDayString(mContext, getDay(7), true));
+
+        // Any time of the day gets the same label
+        assertEquals(Utility.getDayName(mContext, getDay(3)),
+                Utility.getDayName(mContext, getDay(3) + DateUtils.DAY_IN_MILLIS - 1));
+    }
+
+    public void testLabelsAreKept() {
+        DayFormatter formatter = DayFormatter.get(mContext);
+        assertSame("Error: The formatter should last all day",
+                formatter, DayFormatter.get(mContext));
+        assertSame("Error: A day's label should only be formatted once",
+                formatter.getFriendlyDayString(getDay(10), false),
+                formatter.getFriendlyDayString(getDay(10), false));
+    }
+
+    public void testLocaleChange() {
+        Locale.setDefault(Locale.US);
+        DayFormatter formatter = DayFormatter.get(mContext);
+        // The epoch was a Thursday, so Wednesdays are 6 days on from a multiple of 7.  Look
+        // past tomorrow, which has a name of its own.
+        long dayAfterTomorrow = WeatherContract.toEpochDay(getDay(2));
+        long wednesday = dayAfterTomorrow + ((6 - dayAfterTomorrow % 7) + 7) % 7;
+        assertEquals("Wednesday", formatter.getDayName(WeatherContract.fromEpochDay(wednesday)));
+
+        Locale.setDefault(Locale.FRANCE);
+        DayFormatter french = DayFormatter.get(mContext);
+        assertNotSame("Error: Changing the locale should replace the formatter", formatter, french);
+        assertEquals(new SimpleDateFormat("EEE MMM dd", Locale.FRANCE).format(getDay(8)),
+                french.getFriendlyDayString(getDay(8), false));
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks the rows ForecastAdapter binds come from the ForecastItems, and measures binding them
+    against formatting them, which is what every bind used to do.  The timings and allocation
+    counts are logged under TestForecastAdapter.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final int ROWS = 14;
+    // Times each row is bound, about a few flings up and down the list
+    private static final int BINDS_PER_ROW = 50;
+
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long", "humidity", "pressure", "wind", "degrees"
+    };
+    private static final int[] WEATHER_IDS = {200, 300, 500, 511, 520, 600, 701, 761, 781, 800,
+            801, 802, 803, 804};
+
+    private SharedPreferences mPrefs;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Glide can only be started on the main thread, so use the local graphics
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = mPrefs.getString(artPackKey, null);
+        mPrefs.edit().putString(artPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        // The settings are reloaded on the main thread, once it gets round to it
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).usingLocalGraphics();
+            }
+        }.run();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_art_pack_key), mArtPack).commit();
+        super.tearDown();
+    }
+
+    private MatrixCursor createForecastCursor() {
+        return createForecastCursor(ROWS, -1);
+    }
+
+    // The forecast for the given number of days, a degree warmer on the day changedRow
+    private MatrixCursor createForecastCursor(int rows, int changedRow) {
+        return createForecastCursor(0, rows, changedRow);
+    }
+
+    // As above, starting firstRow days from today, as a later page of the list would
+    private MatrixCursor createForecastCursor(int firstRow, int rows, int changedRow) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long today = System.currentTimeMillis();
+        for (int i = firstRow; i < firstRow + rows; i++) {
+            double high = 20.0 + i + (i == changedRow ? 1 : 0);
+            cursor.addRow(new Object[]{i + 1, today + i * DateUtils.DAY_IN_MILLIS, "Clear",
+                    high, 10.0 - i, "94043", WEATHER_IDS[i % WEATHER_IDS.length], 37.4, -122.1,
+                    80.0, 1010.0, 5.0, 180.0});
+        }
+        return cursor;
+    }
+
+    public void testItemsFromCursor() {
+        MatrixCursor cursor = createForecastCursor();
+        ForecastItem[] items = ForecastItem.fromCursor(mContext, cursor);
+        assertEquals("Error: Wrong number of items", ROWS, items.length);
+        assertEquals("Error: The cursor should be left where it was", -1, cursor.getPosition());
+
+        for (int i = 0; i < ROWS; i++) {
+            cursor.moveToPosition(i);
+            ForecastItem item = items[i];
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            assertEquals(date, item.date);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), item.iconResourceId);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), item.artResourceId);
+            assertNull("Error: The local graphics don't need an art url", item.artUrl);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), item.dayText);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, i == 0), item.todayText);
+            assertEquals(Utility.getStringForWeatherCondition(mContext, weatherId),
+                    item.description);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP)), item.highText);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP)), item.lowText);
+            assertEquals(cursor.getString(ForecastFragment.COL_COORD_LAT), item.coordLat);
+            assertEquals(cursor.getString(ForecastFragment.COL_COORD_LONG), item.coordLong);
+        }
+        cursor.close();
+    }
+
+    /*
+        Any time of a day should find that day's row, and days with no row, in a gap or outside
+        the forecast, should find nothing.
+     */
+    public void testDateIndex() {
+        MatrixCursor cursor = createForecastCursor();
+        ForecastItem[] items = ForecastItem.fromCursor(mContext, cursor);
+        // Leave out the fifth day
+        ForecastItem[] gappy = new ForecastItem[ROWS - 1];
+        System.arraycopy(items, 0, gappy, 0, 4);
+        System.arraycopy(items, 5, gappy, 4, ROWS - 5);
+        ForecastDateIndex index = ForecastDateIndex.build(gappy);
+
+        assertEquals(0, index.getPosition(items[0].date));
+        assertEquals(3, index.getPosition(WeatherContract.fromEpochDay(items[3].day)));
+        assertEquals(3, index.getPosition(
+                WeatherContract.fromEpochDay(items[3].day) + DateUtils.DAY_IN_MILLIS - 1));
+        assertEquals("Error: The day after the gap should take its place", 4,
+                index.getPosition(items[5].date));
+        assertEquals(RecyclerView.NO_POSITION, index.getPosition(items[4].date));
+        assertEquals(RecyclerView.NO_POSITION,
+                index.getPosition(items[0].date - DateUtils.DAY_IN_MILLIS));
+        assertEquals(RecyclerView.NO_POSITION,
+                index.getPosition(items[ROWS - 1].date + DateUtils.DAY_IN_MILLIS));
+        assertEquals(RecyclerView.NO_POSITION,
+                ForecastDateIndex.build(new ForecastItem[0]).getPosition(items[0].date));
+        cursor.close();
+    }
+
+    /*
+        A new load should only tell the list about the rows that changed, and only when it was
+        compared with the rows the list shows.
+     */
+    /*
+        The detail screen is shown from the rows kept by the list, so they should carry everything
+        it shows, and only be found for the location they were loaded for.
+     */
+    public void testCacheFindsDetails() {
+        MatrixCursor cursor = createForecastCursor();
+        ForecastItem[] items = ForecastItem.fromCursor(mContext, cursor);
+        SunshineSettings settings = SunshineSettings.get(mContext);
+        ForecastCache.put(settings, items, ForecastDateIndex.build(items));
+        try {
+            ForecastItem item = ForecastCache.findItem(mContext,
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            settings.getLocation(), items[2].date));
+            assertSame(items[2], item);
+            assertEquals(80f, item.humidity);
+            assertEquals(1010f, item.pressure);
+            assertEquals(5f, item.windSpeed);
+            assertEquals(180f, item.degrees);
+            assertTrue(item.hasSameDetails(ForecastItem.fromCursor(mContext, cursor)[2]));
+            assertFalse(item.hasSameDetails(items[3]));
+
+            assertNull("Error: Rows of another location shouldn't be found",
+                    ForecastCache.findItem(mContext,
+                            WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                    settings.getLocation() + "0", items[2].date)));
+            assertNull(ForecastCache.findItem(mContext,
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            settings.getLocation(), items[ROWS - 1].date + DateUtils.DAY_IN_MILLIS)));
+        } finally {
+            ForecastCache.clear();
+            cursor.close();
+        }
+    }
+
+    /*
+        A page loaded after the rows shown goes on the end of them, numbered on from their
+        positions, and can be found by date like the rest.
+     */
+    public void testAppendPage() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        MatrixCursor first = createForecastCursor();
+        ForecastItem[] firstItems = ForecastItem.fromCursor(mContext, first);
+        adapter.swapCursor(new ForecastLoader.ForecastCursor(first, 0, firstItems,
+                ForecastDateIndex.build(firstItems), null, null), true);
+
+        MatrixCursor page = createForecastCursor(ROWS, ROWS, -1);
+        ForecastItem[] pageItems = ForecastItem.fromCursor(mContext, page, ROWS);
+        assertEquals("iconView" + ROWS, pageItems[0].iconTransitionName);
+        assertEquals("Error: Only the first row of the list is today's",
+                pageItems[0].dayText, pageItems[0].todayText);
+
+        adapter.appendItems(pageItems, false);
+        assertEquals(2 * ROWS, adapter.getItemCount());
+        assertSame(firstItems[ROWS - 1], adapter.getItems()[ROWS - 1]);
+        assertSame(pageItems[3], adapter.getItems()[ROWS + 3]);
+        assertEquals(ROWS + 3, adapter.getPositionForDate(pageItems[3].date));
+        assertEquals(2, adapter.getPositionForDate(firstItems[2].date));
+
+        first.close();
+        page.close();
+    }
+
+    public void testSwapCursorDispatchesChanges() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        assertTrue("Error: Rows should have stable ids", adapter.hasStableIds());
+        final StringBuilder events = new StringBuilder();
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                events.append("changed;");
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                events.append("changed ").append(positionStart).append('+').append(itemCount)
+                        .append(';');
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                onItemRangeChanged(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                events.append("inserted ").append(positionStart).append('+').append(itemCount)
+                        .append(';');
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                events.append("removed ").append(positionStart).append('+').append(itemCount)
+                        .append(';');
+            }
+        });
+
+        MatrixCursor first = createForecastCursor();
+        ForecastItem[] firstItems = ForecastItem.fromCursor(mContext, first);
+        adapter.swapCursor(new ForecastLoader.ForecastCursor(first, 0, firstItems,
+                ForecastDateIndex.build(firstItems), null, null));
+        assertEquals("changed;", events.toString());
+        assertEquals(firstItems[3].date, adapter.getItemId(3));
+
+        // One day warmer, and the last day gone
+        events.setLength(0);
+        MatrixCursor second = createForecastCursor(ROWS - 1, 3);
+        ForecastItem[] secondItems = ForecastItem.fromCursor(mContext, second);
+        adapter.swapCursor(new ForecastLoader.ForecastCursor(second, 0, secondItems,
+                ForecastDateIndex.build(secondItems), firstItems,
+                ForecastLoader.calculateDiff(firstItems, secondItems)));
+        assertEquals("removed " + (ROWS - 1) + "+1;changed 3+1;", events.toString());
+        assertEquals(ROWS - 1, adapter.getItemCount());
+
+        // Compared with rows the list no longer shows
+        events.setLength(0);
+        MatrixCursor third = createForecastCursor();
+        ForecastItem[] thirdItems = ForecastItem.fromCursor(mContext, third);
+        adapter.swapCursor(new ForecastLoader.ForecastCursor(third, 0, thirdItems,
+                ForecastDateIndex.build(thirdItems), firstItems,
+                ForecastLoader.calculateDiff(firstItems, thirdItems)));
+        assertEquals("changed;", events.toString());
+
+        first.close();
+        second.close();
+        third.close();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testBindPerformance() {
+        MatrixCursor cursor = createForecastCursor();
+        RecyclerView recyclerView = new RecyclerView(
+                new ContextThemeWrapper(mContext, R.style.AppTheme));
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        adapter.swapCursor(cursor);
+        ForecastAdapter.ForecastAdapterViewHolder[] holders =
+                new ForecastAdapter.ForecastAdapterViewHolder[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            holders[i] = adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(i));
+        }
+
+        // Formatting the rows, as every bind used to
+        Debug.startAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS_PER_ROW; i++) {
+            ForecastItem.fromCursor(mContext, cursor);
+        }
+        long formatNanos = System.nanoTime() - start;
+        int formatAllocations = Debug.getThreadAllocCount() - allocations;
+
+        // Binding the formatted rows
+        allocations = Debug.getThreadAllocCount();
+        start = System.nanoTime();
+        for (int i = 0; i < BINDS_PER_ROW; i++) {
+            for (int j = 0; j < ROWS; j++) {
+                adapter.onBindViewHolder(holders[j], j);
+            }
+        }
+        long bindNanos = System.nanoTime() - start;
+        int bindAllocations = Debug.getThreadAllocCount() - allocations;
+        Debug.stopAllocCounting();
+
+        int binds = BINDS_PER_ROW * ROWS;
+        Log.d(LOG_TAG, "Formatting a row: " + formatNanos / binds / 1000 + "us, " +
+                formatAllocations / binds + " allocations");
+        Log.d(LOG_TAG, "Binding a row: " + bindNanos / binds / 1000 + "us, " +
+                bindAllocations / binds + " allocations");
+
+        cursor.moveToPosition(1);
+        assertEquals("Error: The bound row doesn't match the cursor",
+                Utility.getFriendlyDayString(mContext,
+                        cursor.getLong(ForecastFragment.COL_WEATHER_DATE), false),
+                holders[1].mDateView.getText().toString());
+        cursor.close();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+/*
+    Checks ItemChoiceManager keeps the checked items checked as rows around them come and go, and
+    measures it with a long list with many items checked.  The timings and allocation counts are
+    logged under TestItemChoiceManager.
+ */
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestItemChoiceManager.class.getSimpleName();
+
+    private static final int LARGE_LIST = 10000;
+    private static final int CHANGES = 100;
+
+    /*
+        Just the ids of the rows, which are days as they are in the forecast.
+     */
+    private static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        long[] mIds;
+        int mCount;
+
+        IdAdapter(int count) {
+            setHasStableIds(true);
+            mIds = new long[count * 2];
+            mCount = count;
+            for (int i = 0; i < count; i++) {
+                mIds[i] = (i + 1) * DateUtils.DAY_IN_MILLIS;
+            }
+        }
+
+        void insert(int position, int count, long firstId) {
+            System.arraycopy(mIds, position, mIds, position + count, mCount - position);
+            for (int i = 0; i < count; i++) {
+                mIds[position + i] = firstId + i;
+            }
+            mCount += count;
+            notifyItemRangeInserted(position, count);
+        }
+
+        void remove(int position, int count) {
+            System.arraycopy(mIds, position + count, mIds, position, mCount - position - count);
+            mCount -= count;
+            notifyItemRangeRemoved(position, count);
+        }
+
+        void move(int from, int to) {
+            long id = mIds[from];
+            if (from < to) {
+                System.arraycopy(mIds, from + 1, mIds, from, to - from);
+            } else {
+                System.arraycopy(mIds, to, mIds, to + 1, from - to);
+            }
+            mIds[to] = id;
+            notifyItemMoved(from, to);
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIds[position];
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCount;
+        }
+    }
+
+    // Checks every other row, as ItemChoiceManager.onClick does in CHOICE_MODE_MULTIPLE
+    private static ItemChoiceManager createManager(IdAdapter adapter) {
+        ItemChoiceManager manager = new ItemChoiceManager(adapter);
+        manager.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        for (int i = 0; i < adapter.getItemCount(); i += 2) {
+            manager.mCheckedStates.put(adapter.getItemId(i), i);
+        }
+        return manager;
+    }
+
+    // The checked rows should be the ones with the given ids, and no others
+    private static void assertChecked(ItemChoiceManager manager, IdAdapter adapter,
+                                      long... ids) {
+        int checked = 0;
+        for (int i = 0; i < adapter.getItemCount(); i++) {
+            if (manager.isItemChecked(i)) {
+                checked++;
+                assertEquals("Error: The checked item is at the wrong position", i,
+                        manager.mCheckedStates.get(adapter.getItemId(i), -1));
+            }
+        }
+        assertEquals("Error: Wrong number of checked items", ids.length, checked);
+        assertEquals(ids.length, manager.mCheckedStates.size());
+        for (long id : ids) {
+            assertTrue("Error: " + id + " should be checked", manager.mCheckedStates.containsKey(id));
+        }
+    }
+
+    public void testMap() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * DateUtils.DAY_IN_MILLIS, i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.get(i * DateUtils.DAY_IN_MILLIS, -1));
+        }
+        assertEquals(-1, map.get(DateUtils.DAY_IN_MILLIS + 1, -1));
+
+        // Removing every third entry shouldn't lose any of the others
+        for (int i = 0; i < 1000; i += 3) {
+            map.remove(i * DateUtils.DAY_IN_MILLIS);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 3 == 0 ? -1 : i, map.get(i * DateUtils.DAY_IN_MILLIS, -1));
+        }
+
+        // Nor should removing the odd ones while walking the slots
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot) && map.valueAt(slot) % 2 == 1) {
+                map.removeAt(slot);
+                slot--;
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 != 0 && i % 2 == 0) {
+                count++;
+                assertEquals(i, map.get(i * DateUtils.DAY_IN_MILLIS, -1));
+            }
+        }
+        assertEquals(count, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(2 * DateUtils.DAY_IN_MILLIS));
+    }
+
+    public void testCheckedItemsFollowChanges() {
+        IdAdapter adapter = new IdAdapter(10);
+        ItemChoiceManager manager = createManager(adapter);
+        long[] ids = {adapter.mIds[0], adapter.mIds[2], adapter.mIds[4], adapter.mIds[6],
+                adapter.mIds[8]};
+        assertChecked(manager, adapter, ids);
+        assertEquals(0, manager.getSelectedItemPosition());
+
+        adapter.insert(0, 3, 1000);
+        assertChecked(manager, adapter, ids);
+        assertEquals(3, manager.getSelectedItemPosition());
+
+        adapter.move(3, 7);
+        adapter.move(11, 1);
+        assertChecked(manager, adapter, ids);
+        assertEquals(1, manager.getSelectedItemPosition());
+
+        // Take out the second checked item and the unchecked ones either side of it
+        int position = -1;
+        for (int i = 0; i < adapter.getItemCount(); i++) {
+            if (adapter.mIds[i] == ids[1]) position = i;
+        }
+        adapter.remove(position - 1, 3);
+        assertChecked(manager, adapter, ids[0], ids[2], ids[3], ids[4]);
+
+        // A whole new data set goes through the ids, not the positions
+        adapter.mIds[0] = ids[3];
+        adapter.mIds[1] = 2000;
+        adapter.mCount = 2;
+        adapter.notifyDataSetChanged();
+        assertChecked(manager, adapter, ids[3]);
+        assertEquals(0, manager.getSelectedItemPosition());
+    }
+
+    public void testSaveAndRestore() {
+        IdAdapter adapter = new IdAdapter(20);
+        ItemChoiceManager manager = createManager(adapter);
+        Bundle state = new Bundle();
+        manager.onSaveInstanceState(state);
+
+        ItemChoiceManager restored = new ItemChoiceManager(adapter);
+        restored.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        restored.onRestoreInstanceState(state);
+        for (int i = 0; i < adapter.getItemCount(); i++) {
+            assertEquals(manager.isItemChecked(i), restored.isItemChecked(i));
+        }
+        assertEquals(manager.mCheckedStates.size(), restored.mCheckedStates.size());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testLargeListPerformance() {
+        IdAdapter adapter = new IdAdapter(LARGE_LIST);
+        ItemChoiceManager manager = createManager(adapter);
+        int checked = manager.mCheckedStates.size();
+
+        // Rows coming and going near the top, as a sync that adds and drops a day does
+        long start = System.nanoTime();
+        for (int i = 0; i < CHANGES; i++) {
+            adapter.insert(0, 1, -2 - i);
+            adapter.remove(adapter.getItemCount() - 1, 1);
+        }
+        long rangeNanos = System.nanoTime() - start;
+        assertEquals(checked - CHANGES / 2, manager.mCheckedStates.size());
+
+        // The same number of changes to a list that could only be reconciled as a whole
+        start = System.nanoTime();
+        for (int i = 0; i < CHANGES * 2; i++) {
+            adapter.notifyDataSetChanged();
+        }
+        long wholeNanos = System.nanoTime() - start;
+
+        // Saving and restoring shouldn't allocate more for more checked items
+        Bundle small = new Bundle();
+        createManager(new IdAdapter(10)).onSaveInstanceState(small);
+        Bundle large = new Bundle();
+        manager.onSaveInstanceState(large);
+        ItemChoiceManager restored = new ItemChoiceManager(adapter);
+        ItemChoiceManager restoredSmall = new ItemChoiceManager(adapter);
+
+        Debug.startAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+        restoredSmall.onRestoreInstanceState(small);
+        int smallAllocations = Debug.getThreadAllocCount() - allocations;
+        allocations = Debug.getThreadAllocCount();
+        start = System.nanoTime();
+        restored.onRestoreInstanceState(large);
+        long restoreNanos = System.nanoTime() - start;
+        int largeAllocations = Debug.getThreadAllocCount() - allocations;
+        Debug.stopAllocCounting();
+
+        Log.d(LOG_TAG, checked + " of " + LARGE_LIST + " checked, a range change: " +
+                rangeNanos / (CHANGES * 2) / 1000 + "us, reconciling all: " +
+                wholeNanos / (CHANGES * 2) / 1000 + "us");
+        Log.d(LOG_TAG, "Restoring " + restored.mCheckedStates.size() + " checked items: " +
+                restoreNanos / 1000 + "us, " + largeAllocations + " allocations, against " +
+                smallAllocations + " for " + restoredSmall.mCheckedStates.size());
+
+        assertEquals(manager.mCheckedStates.size(), restored.mCheckedStates.size());
+        assertTrue("Error: Restoring shouldn't allocate for each item, " + largeAllocations +
+                " allocations", largeAllocations - smallAllocations < 100);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSunshineSettings extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+    private String mLocation;
+    private String mLocationIdKey;
+    private String mLocationIdSettingKey;
+    private long mLocationId;
+    private String mLocationIdSetting;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+        mLocation = mPrefs.getString(mContext.getString(R.string.pref_location_key), null);
+        mLocationIdKey = mContext.getString(R.string.pref_location_id_key);
+        mLocationIdSettingKey = mContext.getString(R.string.pref_location_id_setting_key);
+        mLocationId = mPrefs.getLong(mLocationIdKey, -1);
+        mLocationIdSetting = mPrefs.getString(mLocationIdSettingKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit()
+                .putString(mUnitsKey, mUnits)
+                .putString(mContext.getString(R.string.pref_location_key), mLocation)
+                .putLong(mLocationIdKey, mLocationId)
+                .putString(mLocationIdSettingKey, mLocationIdSetting)
+                .commit();
+        super.tearDown();
+    }
+
+    /*
+        The snapshot should match the preferences, and be replaced as a whole when one of the
+        settings changes, leaving the snapshots already read as they were.
+     */
+    public void testSettingsFollowPreferences() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        waitForSettings(new Condition() {
+            public boolean check(SunshineSettings settings) {
+                return settings.isMetric();
+            }
+        });
+        SunshineSettings metric = SunshineSettings.get(mContext);
+        assertSame("Error: Reading the settings again should give the same snapshot",
+                metric, SunshineSettings.get(mContext));
+
+        mPrefs.edit().putString(mContext.getString(R.string.pref_location_key), "London,GB")
+                .commit();
+        waitForSettings(new Condition() {
+            public boolean check(SunshineSettings settings) {
+                return "London,GB".equals(settings.getLocation());
+            }
+        });
+        assertTrue("Error: A change to the location shouldn't change the units",
+                SunshineSettings.get(mContext).isMetric());
+        assertEquals("London,GB", Utility.getPreferredLocation(mContext));
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        waitForSettings(new Condition() {
+            public boolean check(SunshineSettings settings) {
+                return !settings.isMetric();
+            }
+        });
+        assertFalse(Utility.isMetric(mContext));
+        assertEquals("Error: A change to the units shouldn't change the location", "London,GB",
+                SunshineSettings.get(mContext).getLocation());
+        assertTrue("Error: Snapshots should never change once read", metric.isMetric());
+    }
+
+    /*
+        The synced location id should only be handed out while the location is still the one it
+        was synced for.
+     */
+    public void testLocationIdFollowsSync() {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), "London,GB")
+                .putLong(mLocationIdKey, 42)
+                .putString(mLocationIdSettingKey, "London,GB")
+                .commit();
+        waitForSettings(new Condition() {
+            public boolean check(SunshineSettings settings) {
+                return settings.getLocationId() == 42;
+            }
+        });
+        assertEquals(42, Utility.getPreferredLocationId(mContext));
+
+        mPrefs.edit().putString(mContext.getString(R.string.pref_location_key), "Paris,FR")
+                .commit();
+        waitForSettings(new Condition() {
+            public boolean check(SunshineSettings settings) {
+                return "Paris,FR".equals(settings.getLocation());
+            }
+        });
+        assertEquals("Error: The id synced for another location shouldn't be used",
+                -1, Utility.getPreferredLocationId(mContext));
+    }
+
+    private interface Condition {
+        boolean check(SunshineSettings settings);
+    }
+
+    // The settings are reloaded on the main thread, once it gets round to it
+    private void waitForSettings(final Condition condition) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return condition.check(SunshineSettings.get(mContext));
+            }
+        }.run();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Taps the rows of the forecast list on the two-pane layout and measures how long the detail pane
+    takes to draw the forecast, both from the rows the list kept and with the query the pane used
+    to wait for.  The averages are logged under TestTwoPaneDetail.
+
+    Only tablets have the two-pane layout, so the test does nothing on a phone.
+ */
+public class TestTwoPaneDetail extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestTwoPaneDetail.class.getSimpleName();
+
+    private static final int TAPS = 10;
+    private static final int TIMEOUT = 10000;
+
+    public TestTwoPaneDetail() {
+        super(MainActivity.class);
+    }
+
+    public void testTapToContentTimes() throws Throwable {
+        final MainActivity activity = getActivity();
+        if (null == activity.findViewById(R.id.weather_detail_container)) {
+            Log.d(LOG_TAG, "No two-pane layout on this device, nothing to measure");
+            return;
+        }
+        final RecyclerView recyclerView =
+                (RecyclerView) activity.findViewById(R.id.recyclerview_forecast);
+        new PollingCheck(TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return activity.getTimeToFullList() != -1 && recyclerView.getChildCount() > 1;
+            }
+        }.run();
+
+        long uncached = measureTaps(activity, recyclerView, true);
+        long cached = measureTaps(activity, recyclerView, false);
+        Log.d(LOG_TAG, "From the query: " + uncached + "ms, from the list's rows: " + cached + "ms");
+    }
+
+    // Returns the average time from a tap to the forecast drawn in the detail pane
+    private long measureTaps(final MainActivity activity, final RecyclerView recyclerView,
+                             boolean clearCache) throws Throwable {
+        long total = 0;
+        for (int i = 0; i < TAPS; i++) {
+            if (clearCache) {
+                ForecastCache.clear();
+            }
+            // Alternate between two rows, so that every tap changes the forecast shown
+            final int row = i % 2;
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.getChildAt(row).performClick();
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+
+            final DetailFragment[] fragment = new DetailFragment[1];
+            new PollingCheck(TIMEOUT) {
+                @Override
+                protected boolean check() {
+                    fragment[0] = (DetailFragment) activity.getSupportFragmentManager()
+                            .findFragmentByTag(MainActivity.DETAILFRAGMENT_TAG);
+                    return null != fragment[0] && fragment[0].getTimeToContent() != -1;
+                }
+            }.run();
+            total += fragment[0].getTimeToContent();
+        }
+        return total / TAPS;
+    }
+}
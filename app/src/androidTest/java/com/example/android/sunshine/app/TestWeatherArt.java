@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.AbsListView;
+
+public class TestWeatherArt extends AndroidTestCase {
+
+    /*
+        The rows should load the art at one of the two sizes everything else loads it at, or
+        their loads can't be answered from the cache.
+     */
+    public void testRowsUseCanonicalSizes() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        int iconSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        int artSize = mContext.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        assertEquals(iconSize, WeatherArt.getIconSize(mContext));
+        assertEquals(artSize, WeatherArt.getArtSize(mContext));
+
+        adapter.setUseTodayLayout(true);
+        assertEquals(artSize, adapter.getArtSize(0));
+        assertEquals(iconSize, adapter.getArtSize(1));
+        adapter.setUseTodayLayout(false);
+        assertEquals(iconSize, adapter.getArtSize(0));
+    }
+
+    public void testLoadsAreCounted() {
+        WeatherArt.LoadCounter<Bitmap> counter = new WeatherArt.LoadCounter<Bitmap>();
+        int hits = WeatherArt.getMemoryHits();
+        int decodes = WeatherArt.getDecodes();
+        int failures = WeatherArt.getFailures();
+
+        assertFalse("Error: Counting shouldn't stop the load",
+                counter.onResourceReady(null, "art", null, true, true));
+        counter.onResourceReady(null, "art", null, false, true);
+        counter.onResourceReady(null, "art", null, false, false);
+        counter.onException(new Exception(), "art", null, true);
+
+        assertEquals(hits + 1, WeatherArt.getMemoryHits());
+        assertEquals(decodes + 2, WeatherArt.getDecodes());
+        assertEquals(failures + 1, WeatherArt.getFailures());
+    }
+}
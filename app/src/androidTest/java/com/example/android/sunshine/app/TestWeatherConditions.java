@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.shared.WeatherCondition;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    /*
+        The edges of the id ranges, where the old if/else chains were easiest to get wrong.
+     */
+    public void testConditionRanges() {
+        assertNull(WeatherConditions.get(199));
+        assertEquals(WeatherCondition.STORM, WeatherConditions.get(200));
+        assertEquals(WeatherCondition.STORM, WeatherConditions.get(232));
+        assertNull(WeatherConditions.get(233));
+        assertEquals(WeatherCondition.LIGHT_RAIN, WeatherConditions.get(321));
+        assertEquals(WeatherCondition.RAIN, WeatherConditions.get(504));
+        assertNull(WeatherConditions.get(505));
+        assertEquals(WeatherCondition.SNOW, WeatherConditions.get(511));
+        assertEquals(WeatherCondition.RAIN, WeatherConditions.get(531));
+        assertEquals(WeatherCondition.SNOW, WeatherConditions.get(622));
+        assertEquals(WeatherCondition.FOG, WeatherConditions.get(701));
+        // 761 is dust, which has always been drawn as fog
+        assertEquals(WeatherCondition.FOG, WeatherConditions.get(761));
+        assertNull(WeatherConditions.get(771));
+        assertEquals(WeatherCondition.TORNADO, WeatherConditions.get(781));
+        assertEquals(WeatherCondition.CLEAR, WeatherConditions.get(800));
+        assertEquals(WeatherCondition.LIGHT_CLOUDS, WeatherConditions.get(801));
+        assertEquals(WeatherCondition.CLOUDS, WeatherConditions.get(804));
+        assertNull(WeatherConditions.get(900));
+
+        assertNull(WeatherConditions.get(-1));
+        assertNull(WeatherConditions.get(1000));
+        assertEquals(0, WeatherConditions.getStringId(Integer.MAX_VALUE));
+    }
+
+    public void testConditionResources() {
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(781));
+        assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(781));
+        assertEquals(R.drawable.ic_cloudy, Utility.getIconResourceForWeatherCondition(803));
+        assertEquals(R.drawable.art_clouds, Utility.getArtResourceForWeatherCondition(803));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(906));
+        assertEquals(-1, Utility.getArtResourceForWeatherCondition(906));
+
+        assertTrue(Utility.getImageUrlForWeatherCondition(781).contains("Raised_dust"));
+        assertEquals(Utility.getImageUrlForWeatherCondition(200),
+                Utility.getImageUrlForWeatherCondition(232));
+        assertNull(Utility.getImageUrlForWeatherCondition(906));
+    }
+
+    public void testConditionStrings() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_521),
+                Utility.getStringForWeatherCondition(mContext, 521));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 505),
+                Utility.getStringForWeatherCondition(mContext, 505));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1200),
+                Utility.getStringForWeatherCondition(mContext, 1200));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.DashboardEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Tests the dashboard route against the one query per location it replaces, and logs how long
+    each takes as the number of locations grows.
+ */
+public class TestDashboard extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDashboard.class.getSimpleName();
+
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final int DASHBOARD_DAYS = 3;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] DASHBOARD_COLUMNS = {
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+    // these indices must match the projection
+    private static final int COL_LOCATION_ID = 0;
+    private static final int COL_LOCATION_SETTING = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_MAX_TEMP = 3;
+
+    private static final String[] SINGLE_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Every location shows up, with its weather for the requested days, in location order.  A
+        location without any weather still gets a row.
+     */
+    public void testDashboardQuery() {
+        insertLocations(3);
+        ContentValues emptyLocation = new ContentValues();
+        emptyLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "no-weather");
+        emptyLocation.put(LocationEntry.COLUMN_CITY_NAME, "Nowhere");
+        emptyLocation.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        emptyLocation.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, emptyLocation);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardUri(TestUtilities.TEST_DATE, DASHBOARD_DAYS),
+                DASHBOARD_COLUMNS, null, null, null);
+        assertEquals("Error: Dashboard returned the wrong number of rows",
+                3 * DASHBOARD_DAYS + 1, cursor.getCount());
+
+        long lastLocationId = -1;
+        while (cursor.moveToNext()) {
+            assertTrue("Error: Dashboard isn't sorted by location",
+                    cursor.getLong(COL_LOCATION_ID) >= lastLocationId);
+            lastLocationId = cursor.getLong(COL_LOCATION_ID);
+            if ("no-weather".equals(cursor.getString(COL_LOCATION_SETTING))) {
+                assertTrue("Error: Location without weather should have null weather columns",
+                        cursor.isNull(COL_DATE));
+            } else {
+                assertFalse("Error: Missing weather for a location", cursor.isNull(COL_DATE));
+            }
+        }
+        cursor.close();
+    }
+
+    /*
+        Not a pass/fail test, this logs the time the dashboard takes next to the N single
+        location queries it replaces.  Run it and look for TestDashboard in the log.
+     */
+    public void testDashboardBenchmark() {
+        int[] locationCounts = {10, 100, 1000};
+        for (int locationCount : locationCounts) {
+            deleteAllRecords();
+            insertLocations(locationCount);
+
+            // Warm up the database connection and page cache before timing either approach.  The
+            // warm up uses a different start date, so the timed queries aren't provider cache hits.
+            queryDashboard(TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+            querySingleLocations(locationCount, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+
+            long start = SystemClock.elapsedRealtime();
+            int dashboardRows = queryDashboard(TestUtilities.TEST_DATE);
+            long dashboardMillis = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            int singleRows = querySingleLocations(locationCount, TestUtilities.TEST_DATE);
+            long singleMillis = SystemClock.elapsedRealtime() - start;
+
+            assertEquals("Error: Dashboard and single queries disagree", singleRows, dashboardRows);
+            Log.i(LOG_TAG, locationCount + " locations: dashboard " + dashboardMillis +
+                    "ms, single queries " + singleMillis + "ms, " + dashboardRows + " rows");
+        }
+    }
+
+    private int queryDashboard(long date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardUri(date, DASHBOARD_DAYS),
+                DASHBOARD_COLUMNS, null, null, null);
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            cursor.getDouble(COL_MAX_TEMP);
+            rows++;
+        }
+        cursor.close();
+        return rows;
+    }
+
+    private int querySingleLocations(int locationCount, long date) {
+        int rows = 0;
+        for (int i = 0; i < locationCount; i++) {
+            Uri uri = WeatherEntry.buildWeatherLocationWithRange(getLocationSetting(i),
+                    date, date + (DASHBOARD_DAYS - 1) * DAY_IN_MILLIS,
+                    DASHBOARD_DAYS);
+            Cursor cursor = mContext.getContentResolver().query(uri, SINGLE_COLUMNS, null, null, null);
+            while (cursor.moveToNext()) {
+                cursor.getDouble(1);
+                rows++;
+            }
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static String getLocationSetting(int i) {
+        return "dashboard-" + i;
+    }
+
+    /*
+        Inserts straight into the database in one transaction, since going through the provider
+        would make setting up a thousand locations the slowest part of the test.
+     */
+    private void insertLocations(int locationCount) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locationCount; i++) {
+                ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocationSetting(i));
+                long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    // Straight into the database, so the date has to be a day since the epoch
+                    weatherValues.put(WeatherEntry.COLUMN_DATE,
+                            WeatherContract.toEpochDay(TestUtilities.TEST_DATE) + day);
+                    db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+}
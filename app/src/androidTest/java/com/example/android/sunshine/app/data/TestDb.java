@@ -16,9 +16,13 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
 
 import java.util.HashSet;
 
@@ -55,6 +59,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.CurrentEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -234,4 +240,161 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        The SQL used to migrate version 2 databases has to agree with WeatherContract.toEpochDay,
+        and converting back has to give the normalized date.
+     */
+    public void testEpochDayConversion() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        long[] dates = {TestUtilities.TEST_DATE, 1419033600000L, 1427590800000L,
+                System.currentTimeMillis()};
+        for (long date : dates) {
+            long normalizedDate = WeatherContract.normalizeDate(date);
+            long epochDay = WeatherContract.toEpochDay(date);
+            assertEquals("Error: Epoch day doesn't convert back to the normalized date",
+                    normalizedDate, WeatherContract.fromEpochDay(epochDay));
+
+            Cursor cursor = db.rawQuery("SELECT " +
+                    String.format(WeatherDbHelper.SQL_MILLIS_TO_EPOCH_DAY, "?"),
+                    new String[]{Long.toString(normalizedDate)});
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: Migration disagrees with toEpochDay for " + date,
+                    epochDay, cursor.getLong(0));
+            cursor.close();
+        }
+        db.close();
+    }
+
+    /*
+        A version 2 database, the last one to store dates in milliseconds, should keep its
+        forecast through the upgrade, with the dates turned into days, and gain the tables and
+        index it didn't have.
+     */
+    public void testUpgradeFromVersion2() {
+        SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        oldDb.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, " +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL);");
+        oldDb.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, " +
+                "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                "FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        oldDb.setVersion(WeatherDbHelper.DATABASE_VERSION_MILLIS_DATES);
+
+        long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Unable to insert into the version 2 location table",
+                locationRowId != -1);
+        long millisDate = WeatherContract.normalizeDate(1419033600000L);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, millisDate);
+        assertTrue("Error: Unable to insert into the version 2 weather table",
+                oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        oldDb.close();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        assertEquals("Error: The upgrade lost the version 2 forecast", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId, cursor.getLong(0));
+        assertEquals("Error: The upgrade didn't turn the date into a day",
+                WeatherContract.toEpochDay(millisDate), cursor.getLong(1));
+        cursor.close();
+
+        final HashSet<String> addedNames = new HashSet<String>();
+        addedNames.add(WeatherContract.CurrentEntry.TABLE_NAME);
+        addedNames.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        addedNames.add("location_coord");
+        cursor = db.rawQuery("SELECT name FROM sqlite_master", null);
+        while (cursor.moveToNext()) {
+            addedNames.remove(cursor.getString(0));
+        }
+        cursor.close();
+        assertTrue("Error: The upgrade didn't create " + addedNames, addedNames.isEmpty());
+        db.close();
+    }
+
+    /*
+        Not a pass/fail test for the timings, this logs how big the (location_id, date) index is
+        and how long a location's date range takes to read, with dates stored as milliseconds
+        and as days.  Run it and look for TestDb in the log.
+     */
+    public void testEpochDayIndexSize() {
+        SQLiteDatabase millisDb = createDateIndexDatabase(false);
+        SQLiteDatabase daysDb = createDateIndexDatabase(true);
+
+        long millisPages = getPageCount(millisDb);
+        long daysPages = getPageCount(daysDb);
+        long millisTime = timeRangeQueries(millisDb, false);
+        long daysTime = timeRangeQueries(daysDb, true);
+        Log.i(LOG_TAG, "Milliseconds: " + millisPages + " pages, " + millisTime + "ms; " +
+                "days: " + daysPages + " pages, " + daysTime + "ms");
+        assertTrue("Error: Storing days should never take more pages than milliseconds",
+                daysPages <= millisPages);
+
+        millisDb.close();
+        daysDb.close();
+    }
+
+    private static final int INDEX_TEST_LOCATIONS = 100;
+    private static final int INDEX_TEST_DAYS = 365;
+
+    private SQLiteDatabase createDateIndexDatabase(boolean epochDays) {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE dates (location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                "UNIQUE (location_id, date))");
+        long firstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int location = 0; location < INDEX_TEST_LOCATIONS; location++) {
+                for (int day = 0; day < INDEX_TEST_DAYS; day++) {
+                    values.put("location_id", location);
+                    values.put("date", getIndexTestDate(epochDays, firstDate, day));
+                    db.insert("dates", null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return db;
+    }
+
+    private static long getIndexTestDate(boolean epochDays, long firstDate, int day) {
+        return epochDays ? WeatherContract.toEpochDay(firstDate) + day
+                : firstDate + day * DateUtils.DAY_IN_MILLIS;
+    }
+
+    private static long getPageCount(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA page_count", null);
+        cursor.moveToFirst();
+        long pages = cursor.getLong(0);
+        cursor.close();
+        return pages;
+    }
+
+    // Reads two weeks of every location, the way the forecast list does
+    private static long timeRangeQueries(SQLiteDatabase db, boolean epochDays) {
+        long firstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        String from = Long.toString(getIndexTestDate(epochDays, firstDate, 100));
+        String to = Long.toString(getIndexTestDate(epochDays, firstDate, 113));
+        long start = SystemClock.elapsedRealtime();
+        for (int location = 0; location < INDEX_TEST_LOCATIONS; location++) {
+            Cursor cursor = db.rawQuery("SELECT date FROM dates " +
+                    "WHERE location_id = ? AND date >= ? AND date <= ? ORDER BY date",
+                    new String[]{Integer.toString(location), from, to});
+            assertEquals(14, cursor.getCount());
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
 }
@@ -24,11 +24,26 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -179,7 +194,15 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        // The database keeps the date as a day since the epoch, and the provider hands it back
+        // as the normalized date in milliseconds.
+        ContentValues databaseValues = new ContentValues(weatherValues);
+        databaseValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.toEpochDay(TestUtilities.TEST_DATE));
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+
+        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, databaseValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -512,4 +535,586 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        The location keyed routes are served from an in-process cache.  Make sure a repeated query
+        is a hit, and that a write to the weather table is visible straight afterwards.
+     */
+    public void testQueryCacheInvalidation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertEquals("Error: Expected a single weather row", 1, cursor.getCount());
+        cursor.close();
+
+        Bundle before = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertEquals("Error: Cached weather query returned the wrong row count", 1, cursor.getCount());
+        cursor.close();
+        Bundle after = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+        assertEquals("Error: Repeated weather query was not served from the cache",
+                before.getInt(WeatherContract.QueryCacheStats.HITS) + 1,
+                after.getInt(WeatherContract.QueryCacheStats.HITS));
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertEquals("Error: Weather insert did not invalidate the cached query",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Every call is counted against its route, along with the rows it returned and who made
+        it.  The provider lives as long as the test process, so only the difference counts.
+     */
+    public void testProviderMetrics() throws JSONException {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        JSONObject before = getRouteMetrics("query", WeatherContract.PATH_WEATHER + "/*");
+        final int queries = 3;
+        for (int i = 0; i < queries; i++) {
+            mContext.getContentResolver().query(weatherUri, null, null, null, null).close();
+        }
+        JSONObject after = getRouteMetrics("query", WeatherContract.PATH_WEATHER + "/*");
+
+        assertEquals("Error: Queries were not counted", queries,
+                after.getInt("count") - before.optInt("count"));
+        assertEquals("Error: Rows were not counted", queries * BULK_INSERT_RECORDS_TO_INSERT,
+                after.getLong("rows") - before.optLong("rows"));
+        assertTrue("Error: Window sizes were not recorded",
+                after.getLong("window_bytes") > before.optLong("window_bytes"));
+        assertTrue("Error: Caller was not recorded",
+                after.getJSONObject("callers").has(mContext.getPackageName()));
+
+        JSONArray histogram = after.getJSONArray("histogram");
+        int histogramCount = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            histogramCount += histogram.getInt(i);
+        }
+        assertEquals("Error: Histogram doesn't add up", after.getInt("count"), histogramCount);
+        assertTrue("Error: Bulk insert was not counted",
+                getRouteMetrics("bulkInsert", WeatherContract.PATH_WEATHER).getInt("count") > 0);
+    }
+
+    // Returns the metrics of the route, or an empty object if it hasn't been called yet
+    private JSONObject getRouteMetrics(String operation, String route) throws JSONException {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_PROVIDER_METRICS, null, null);
+        JSONArray routes = new JSONObject(result.getString(WeatherContract.EXTRA_PROVIDER_METRICS))
+                .getJSONArray("routes");
+        for (int i = 0; i < routes.length(); i++) {
+            JSONObject metrics = routes.getJSONObject(i);
+            if (operation.equals(metrics.getString("operation")) &&
+                    route.equals(metrics.getString("route"))) {
+                return metrics;
+            }
+        }
+        return new JSONObject();
+    }
+
+    /*
+        The current conditions table keeps a single row per location.  Inserting a second row for
+        the same location should replace the first one, and deleting the location should remove it.
+     */
+    public void testCurrentConditions() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues currentValues = TestUtilities.createCurrentValues(locationRowId);
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, currentValues);
+
+        Uri currentUri = CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(currentUri, null, null, null, null);
+        TestUtilities.validateCursor("testCurrentConditions", cursor, currentValues);
+
+        ContentValues updatedValues = new ContentValues(currentValues);
+        updatedValues.put(CurrentEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, updatedValues);
+
+        cursor = mContext.getContentResolver().query(currentUri, null, null, null, null);
+        assertEquals("Error: Expected a single current conditions row", 1, cursor.getCount());
+        TestUtilities.validateCursor("testCurrentConditions, replaced", cursor, updatedValues);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(CurrentEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Current conditions not deleted with their location", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        The current row is only refreshed when the sync adapter runs, so after midnight it holds
+        yesterday's weather until the next sync.  Until then, today's row in the weather table
+        should be returned in its place, with the columns of the current conditions table.
+     */
+    public void testCurrentConditionsFromBeforeToday() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues currentValues = TestUtilities.createCurrentValues(locationRowId);
+        currentValues.put(CurrentEntry.COLUMN_DATE,
+                WeatherContract.fromEpochDay(WeatherContract.toEpochDay(today) - 1));
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, currentValues);
+
+        ContentValues todayValues = TestUtilities.createWeatherValues(locationRowId);
+        todayValues.put(WeatherEntry.COLUMN_DATE, today);
+        todayValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Aurora");
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, todayValues);
+
+        ContentValues expectedValues = new ContentValues(todayValues);
+        expectedValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+        expectedValues.putAll(locationValues);
+        expectedValues.put(CurrentEntry._ID, locationRowId);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals("Error: Expected only today's weather", 1, cursor.getCount());
+        TestUtilities.validateCursor("testCurrentConditionsFromBeforeToday", cursor, expectedValues);
+
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocationId(locationRowId), null, null, null, null);
+        TestUtilities.validateCursor("testCurrentConditionsFromBeforeToday, id", cursor,
+                expectedValues);
+
+        // Without weather for today either, there's nothing to show
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals("Error: Yesterday's current conditions were returned", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Old weather rows are rolled up into a monthly history row instead of being deleted.  All
+        of the bulk insert test days fall in the same month, so archiving the first few of them
+        should leave the rest alone and produce a single history row.
+     */
+    public void testArchiveWeather() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        final int daysToArchive = 3;
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE,
+                bulkInsertContentValues[daysToArchive].getAsLong(WeatherEntry.COLUMN_DATE));
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+        assertEquals("Error: Archived the wrong number of weather rows",
+                daysToArchive, result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Archived weather rows were not deleted",
+                BULK_INSERT_RECORDS_TO_INSERT - daysToArchive, cursor.getCount());
+        cursor.close();
+
+        // The first three days have a low of 65, 64 and 63, and a high of 75, 76 and 77
+        ContentValues expectedValues = new ContentValues();
+        expectedValues.put(HistoryEntry.COLUMN_DAYS, daysToArchive);
+        expectedValues.put(HistoryEntry.COLUMN_MIN_TEMP, 63);
+        expectedValues.put(HistoryEntry.COLUMN_MAX_TEMP, 77);
+        expectedValues.put(HistoryEntry.COLUMN_AVG_MIN_TEMP, 64);
+        expectedValues.put(HistoryEntry.COLUMN_AVG_MAX_TEMP, 76);
+        expectedValues.put(HistoryEntry.COLUMN_PRECIP_DAYS, daysToArchive);
+        expectedValues.put(HistoryEntry.COLUMN_DOMINANT_WEATHER_ID, 321);
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION, Long.MIN_VALUE,
+                        TestUtilities.TEST_DATE), null, null, null, null);
+        assertEquals("Error: Expected a single month of history", 1, cursor.getCount());
+        TestUtilities.validateCursor("testArchiveWeather", cursor, expectedValues);
+
+        // Archiving the rest merges into the same month
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE, Long.MAX_VALUE);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals("Error: Expected the month to be merged", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Merged month has the wrong number of days", BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS)));
+        cursor.close();
+    }
+
+    /*
+        Pages through the bulk insert test days a few at a time, using the date of the last row
+        of each page as the start of the next one.
+     */
+    public void testWeatherRangePaging() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        final int pageSize = 4;
+        Uri pageUri = WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE, Long.MAX_VALUE, pageSize);
+        int rowsSeen = 0;
+        int pages = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(pageUri, null, null, null, null);
+            int count = cursor.getCount();
+            for (int i = 0; cursor.moveToNext(); i++) {
+                TestUtilities.validateCurrentRecord("testWeatherRangePaging.  Error validating page " +
+                        pages + " row " + i, cursor, bulkInsertContentValues[rowsSeen + i]);
+            }
+            if (count != 0) {
+                cursor.moveToLast();
+                pageUri = WeatherEntry.buildNextPage(pageUri,
+                        cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            }
+            cursor.close();
+            rowsSeen += count;
+            pages++;
+            if (count < pageSize) break;
+        }
+        assertEquals("Error: Paging didn't return every row", BULK_INSERT_RECORDS_TO_INSERT, rowsSeen);
+        assertEquals("Error: Wrong number of pages", 3, pages);
+    }
+
+    /*
+        The stats routes aggregate in SQLite and return a single row.  Archiving half of the bulk
+        insert test days into the history shouldn't change the totals of the two halves.
+     */
+    public void testWeatherStats() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        // The lows go from 65 down to 56 and the highs from 75 up to 84
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationStats(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, Long.MAX_VALUE), null, null, null, null);
+        assertEquals("Error: Stats should be a single row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        validateStats("testWeatherStats, weather", cursor, BULK_INSERT_RECORDS_TO_INSERT, 56, 84, 60.5, 79.5);
+        cursor.close();
+
+        final int daysToArchive = BULK_INSERT_RECORDS_TO_INSERT / 2;
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE,
+                bulkInsertContentValues[daysToArchive].getAsLong(WeatherEntry.COLUMN_DATE));
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationStats(TestUtilities.TEST_LOCATION,
+                        Long.MIN_VALUE, Long.MAX_VALUE), null, null, null, null);
+        cursor.moveToFirst();
+        validateStats("testWeatherStats, history", cursor, daysToArchive, 61, 79, 63, 77);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationStats(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, Long.MAX_VALUE), null, null, null, null);
+        cursor.moveToFirst();
+        validateStats("testWeatherStats, remaining weather", cursor,
+                BULK_INSERT_RECORDS_TO_INSERT - daysToArchive, 56, 84, 58, 82);
+        cursor.close();
+    }
+
+    private static void validateStats(String error, Cursor cursor, int days, double min, double max,
+                                      double avgMin, double avgMax) {
+        assertEquals(error, days, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_DAYS)));
+        assertEquals(error, min, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_MIN_TEMP)), 0.001);
+        assertEquals(error, max, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_MAX_TEMP)), 0.001);
+        assertEquals(error, avgMin, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_AVG_MIN_TEMP)), 0.001);
+        assertEquals(error, avgMax, cursor.getDouble(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_AVG_MAX_TEMP)), 0.001);
+        // Every test day is drizzle
+        assertEquals(error, days, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_PRECIP_DAYS)));
+        assertEquals(error, 321, cursor.getInt(cursor.getColumnIndex(WeatherContract.StatsColumns.COLUMN_DOMINANT_WEATHER_ID)));
+    }
+
+    /*
+        The location id keyed URIs should return the same weather as the location setting ones,
+        without needing the location table.
+     */
+    public void testLocationIdQueries() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationIdWithStartDate(locationRowId, TestUtilities.TEST_DATE),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Location id query returned the wrong number of rows",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testLocationIdQueries.  Error validating row " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationIdWithDate(locationRowId, TestUtilities.TEST_DATE),
+                null, null, null, null);
+        TestUtilities.validateCursor("testLocationIdQueries, date", cursor, bulkInsertContentValues[0]);
+
+        ContentValues currentValues = TestUtilities.createCurrentValues(locationRowId);
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, currentValues);
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocationId(locationRowId), null, null, null, null);
+        TestUtilities.validateCursor("testLocationIdQueries, current", cursor, currentValues);
+    }
+
+    /*
+        A backup read out of the provider restores every location, forecast, current conditions
+        and month of history after they've all been deleted.
+     */
+    public void testBackupAndRestore() throws IOException {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI,
+                TestUtilities.createCurrentValues(locationRowId));
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE,
+                bulkInsertContentValues[3].getAsLong(WeatherEntry.COLUMN_DATE));
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+
+        Uri[] tables = {LocationEntry.CONTENT_URI, WeatherEntry.CONTENT_URI,
+                CurrentEntry.CONTENT_URI, HistoryEntry.CONTENT_URI};
+        int[] counts = new int[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            counts[i] = getCount(tables[i]);
+            assertTrue("Error: Nothing to back up in " + tables[i], counts[i] > 0);
+        }
+
+        assertEquals(WeatherContract.BackupEntry.CONTENT_TYPE,
+                mContext.getContentResolver().getType(WeatherContract.BackupEntry.CONTENT_URI));
+        InputStream in = mContext.getContentResolver().openInputStream(
+                WeatherContract.BackupEntry.CONTENT_URI);
+        ByteArrayOutputStream backup = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            backup.write(buffer, 0, read);
+        }
+        in.close();
+
+        deleteAllRecordsFromProvider();
+
+        // The restore is applied in the background once the stream is closed
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, tco);
+        OutputStream out = mContext.getContentResolver().openOutputStream(
+                WeatherContract.BackupEntry.CONTENT_URI);
+        out.write(backup.toByteArray());
+        out.close();
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+
+        for (int i = 0; i < tables.length; i++) {
+            assertEquals("Error: Wrong number of rows restored to " + tables[i],
+                    counts[i], getCount(tables[i]));
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        bulkInsertContentValues[3].getAsLong(WeatherEntry.COLUMN_DATE)),
+                null, null, null, null);
+        // The location was restored under a new id
+        ContentValues expectedValues = new ContentValues(bulkInsertContentValues[3]);
+        expectedValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+        TestUtilities.validateCursor("testBackupAndRestore", cursor, expectedValues);
+    }
+
+    /*
+        A stream that isn't a backup changes nothing, and from API 19 on the writer is told so
+        through its end of the pipe.
+     */
+    public void testRestoreFailureReported() throws IOException {
+        if (Build.VERSION.SDK_INT < 19) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+
+        final ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(
+                WeatherContract.BackupEntry.CONTENT_URI, "w");
+        OutputStream out = new FileOutputStream(pfd.getFileDescriptor());
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        out.flush();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                try {
+                    pfd.checkError();
+                    return false;
+                } catch (IOException e) {
+                    return true;
+                }
+            }
+        }.run();
+        pfd.close();
+
+        assertEquals("Error: A failed restore changed the locations",
+                1, getCount(LocationEntry.CONTENT_URI));
+    }
+
+    /*
+        Deleting a few hundred locations leaves their pages on the free list.  The first
+        maintenance run rebuilds the database with incremental vacuum turned on, and later runs
+        release whatever has been freed since, so both should leave no free pages behind.
+     */
+    public void testDatabaseMaintenance() {
+        for (int run = 0; run < 2; run++) {
+            TestUtilities.insertSyntheticLocations(mContext, 300, 14, 3);
+            deleteAllRecordsFromProvider();
+
+            Bundle before = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_GET_DATABASE_STATS, null, null);
+            long freePages = before.getLong(WeatherContract.DatabaseStats.FREE_PAGES);
+            assertTrue("Error: Deleting every row freed no pages", freePages > 0);
+
+            Bundle after = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+            assertTrue("Error: Database failed its integrity check",
+                    after.getBoolean(WeatherContract.DatabaseStats.INTEGRITY_OK));
+            assertEquals("Error: Maintenance left free pages behind", 0,
+                    after.getLong(WeatherContract.DatabaseStats.FREE_PAGES));
+            assertEquals("Error: Wrong number of pages reclaimed", freePages,
+                    after.getLong(WeatherContract.DatabaseStats.PAGES_RECLAIMED));
+            assertTrue("Error: Database did not shrink",
+                    after.getLong(WeatherContract.DatabaseStats.SIZE_BYTES) <
+                            before.getLong(WeatherContract.DatabaseStats.SIZE_BYTES));
+            assertTrue("Error: Last maintenance run was not recorded",
+                    after.getLong(WeatherContract.DatabaseStats.LAST_MAINTENANCE) > 0);
+        }
+    }
+
+    /*
+        Nearest queries come back nearest first, however far the search had to widen to find
+        enough locations, and boxes work on either side of the 180th meridian.
+     */
+    public void testSpatialQueries() {
+        // The north pole test location is at 64.7488, -147.353
+        insertLocation(TestUtilities.createNorthPoleLocationValues());
+        insertLocation(createLocationValues("Fairbanks,US", 64.84, -147.72));
+        insertLocation(createLocationValues("Anchorage,US", 61.22, -149.90));
+        insertLocation(createLocationValues("Suva,FJ", -18.14, 178.44));
+        insertLocation(createLocationValues("Apia,WS", -13.83, -171.76));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearestUri(64.75, -147.35, 2), null, null, null, null);
+        assertEquals("Error: Wrong number of nearest locations", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Nearest location is wrong", TestUtilities.TEST_LOCATION,
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertTrue("Error: Nearest location is too far away",
+                cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE)) < 1);
+        cursor.moveToNext();
+        assertEquals("Error: Second nearest location is wrong", "Fairbanks,US",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        cursor.close();
+
+        // Nothing else is within thousands of kilometres, so this has to search most of the globe
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearestUri(64.75, -147.35, 10), null, null, null, null);
+        assertEquals("Error: Expected every location", 5, cursor.getCount());
+        double lastDistance = -1;
+        while (cursor.moveToNext()) {
+            double distance = cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE));
+            assertTrue("Error: Nearest locations out of order", distance >= lastDistance);
+            lastDistance = distance;
+        }
+        cursor.close();
+
+        assertEquals("Error: Wrong locations in box", 3,
+                getCount(LocationEntry.buildLocationBoxUri(60, -150, 70, -140)));
+        assertEquals("Error: Wrong locations in box across the 180th meridian", 2,
+                getCount(LocationEntry.buildLocationBoxUri(-20, 170, -10, -170)));
+    }
+
+    private void insertLocation(ContentValues values) {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private static ContentValues createLocationValues(String locationSetting, double lat,
+                                                      double lon) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return values;
+    }
+
+    /*
+        Each word typed matches the start of a word of the city's name or its country code,
+        ignoring case and accents, and the most prominent cities come first.
+     */
+    public void testGazetteerSearch() {
+        assertEquals(WeatherContract.GazetteerEntry.CONTENT_TYPE, mContext.getContentResolver()
+                .getType(WeatherContract.GazetteerEntry.buildGazetteerSearchUri("zur")));
+
+        assertEquals("Error: Accented city not found", "Zürich,CH", getFirstSuggestion("ZUR"));
+        assertEquals("Error: Second word prefix not matched", "New York,US",
+                getFirstSuggestion("new y"));
+        assertEquals("Error: Country code not matched", "Paris,FR", getFirstSuggestion("paris fr"));
+        assertEquals("Error: Less prominent city suggested first", "Moscow,RU",
+                getFirstSuggestion("mo"));
+        assertNull("Error: Suggested a city that doesn't match", getFirstSuggestion("xyzzy"));
+        // Full text query syntax is just punctuation to the search
+        assertNull("Error: Suggested a city for punctuation", getFirstSuggestion("\"*\" -()"));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.GazetteerEntry.buildGazetteerSearchUri("san", 3),
+                null, null, null, null);
+        assertEquals("Error: Suggestion limit not applied", 3, cursor.getCount());
+        long lastId = 0;
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(cursor.getColumnIndex(WeatherContract.GazetteerEntry._ID));
+            assertTrue("Error: Suggestions out of order", id > lastId);
+            lastId = id;
+        }
+        cursor.close();
+    }
+
+    private String getFirstSuggestion(String text) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.GazetteerEntry.buildGazetteerSearchUri(text), null, null, null, null);
+        String locationSetting = null;
+        if (cursor.moveToFirst()) {
+            locationSetting = cursor.getString(cursor.getColumnIndex(
+                    WeatherContract.GazetteerEntry.COLUMN_LOCATION_SETTING));
+        }
+        cursor.close();
+        return locationSetting;
+    }
+
+    private int getCount(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.DashboardEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Not a pass/fail test, this measures the provider with thousands of locations: bulk insert
+    throughput, each location route, archiving old rows and iterating a cursor.  The results are
+    logged and written as JSON to provider-benchmark.json in the app's external files directory,
+    so runs can be pulled off the device and compared over time.
+
+    By default only 1000 locations are used, to keep the regular test run short.  For the full
+    run up to 10000 locations, before running the tests:
+
+        adb shell setprop log.tag.TestProviderBenchmark DEBUG
+ */
+public class TestProviderBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderBenchmark.class.getSimpleName();
+
+    private static final String RESULTS_FILE_NAME = "provider-benchmark.json";
+
+    private static final int[] DEFAULT_LOCATION_COUNTS = {1000};
+    private static final int[] FULL_LOCATION_COUNTS = {1000, 5000, 10000};
+
+    private static final int DAYS_PER_LOCATION = 16;
+    private static final int MONTHS_PER_LOCATION = 12;
+    // Rows per bulkInsert, about what a few dozen syncs would send
+    private static final int BULK_INSERT_BATCH = 512;
+    // Locations each route is queried for
+    private static final int SAMPLED_LOCATIONS = 50;
+
+    /* Builds the URI of one route for a location */
+    private interface Route {
+        Uri build(String locationSetting, long locationId);
+    }
+
+    private static final String[] ROUTE_NAMES = {
+            "weather/*",
+            "weather/*/#",
+            "weather/*/range",
+            "weather/*/stats",
+            "location/#/weather",
+            "current/*",
+            "location/#/current",
+            "history/*",
+            "history/*/stats"
+    };
+
+    private static final long FIRST_DATE = TestUtilities.TEST_DATE;
+    private static final long WEEK_LATER = FIRST_DATE + 6 * DateUtils.DAY_IN_MILLIS;
+
+    private static final Route[] ROUTES = {
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, FIRST_DATE);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return WeatherEntry.buildWeatherLocationWithDate(locationSetting, FIRST_DATE);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return WeatherEntry.buildWeatherLocationWithRange(locationSetting, FIRST_DATE,
+                            Long.MAX_VALUE, 7);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return WeatherEntry.buildWeatherLocationStats(locationSetting, FIRST_DATE,
+                            WEEK_LATER);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return WeatherEntry.buildWeatherLocationIdWithStartDate(locationId, FIRST_DATE);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return CurrentEntry.buildCurrentLocation(locationSetting);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return CurrentEntry.buildCurrentLocationId(locationId);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return HistoryEntry.buildHistoryLocation(locationSetting);
+                }
+            },
+            new Route() {
+                public Uri build(String locationSetting, long locationId) {
+                    return HistoryEntry.buildHistoryLocationStats(locationSetting, Long.MIN_VALUE,
+                            FIRST_DATE);
+                }
+            }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    // Through the provider, so that its query cache is emptied as well
+    private void deleteAllRecords() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(CurrentEntry.CONTENT_URI, null, null);
+        resolver.delete(HistoryEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testProviderBenchmark() throws JSONException, IOException {
+        int[] locationCounts = Log.isLoggable(LOG_TAG, Log.DEBUG) ?
+                FULL_LOCATION_COUNTS : DEFAULT_LOCATION_COUNTS;
+
+        JSONArray runs = new JSONArray();
+        for (int locationCount : locationCounts) {
+            deleteAllRecords();
+            runs.put(runBenchmark(locationCount));
+        }
+
+        JSONObject results = new JSONObject();
+        results.put("timestamp", System.currentTimeMillis());
+        results.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        results.put("sdk", Build.VERSION.SDK_INT);
+        results.put("days_per_location", DAYS_PER_LOCATION);
+        results.put("runs", runs);
+        writeResults(results);
+    }
+
+    private JSONObject runBenchmark(int locationCount) throws JSONException {
+        JSONObject run = new JSONObject();
+        run.put("locations", locationCount);
+
+        // Locations, current conditions and history go straight in, the weather goes through
+        // bulkInsert the way the sync adapter sends it.
+        long setupMillis = TestUtilities.insertSyntheticLocations(mContext, locationCount, 0,
+                MONTHS_PER_LOCATION);
+        run.put("setup_ms", setupMillis);
+        long[] locationIds = getLocationIds(locationCount);
+
+        int weatherRows = locationCount * DAYS_PER_LOCATION;
+        long bulkInsertMillis = bulkInsertWeather(locationIds);
+        run.put("weather_rows", weatherRows);
+        run.put("bulk_insert_ms", bulkInsertMillis);
+        run.put("bulk_insert_rows_per_s", bulkInsertMillis == 0 ? 0 :
+                weatherRows * 1000L / bulkInsertMillis);
+
+        JSONObject routes = new JSONObject();
+        for (int i = 0; i < ROUTES.length; i++) {
+            routes.put(ROUTE_NAMES[i], timeRoute(ROUTES[i], locationIds));
+        }
+        run.put("routes", routes);
+
+        run.put("iteration", timeIteration());
+
+        // Two of the sixteen days of every location expire
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE,
+                FIRST_DATE + 2 * DateUtils.DAY_IN_MILLIS);
+        long start = SystemClock.elapsedRealtime();
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+        long archiveMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals("Error: Archived the wrong number of rows", 2 * locationCount,
+                result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+        run.put("archive_rows", 2 * locationCount);
+        run.put("archive_ms", archiveMillis);
+
+        Log.i(LOG_TAG, run.toString());
+        return run;
+    }
+
+    private long[] getLocationIds(int locationCount) {
+        long[] locationIds = new long[locationCount];
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, LocationEntry._ID + " ASC");
+        assertEquals("Error: Wrong number of synthetic locations", locationCount, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return locationIds;
+    }
+
+    private long bulkInsertWeather(long[] locationIds) {
+        List<ContentValues> batch = new ArrayList<ContentValues>(BULK_INSERT_BATCH);
+        long elapsed = 0;
+        for (long locationId : locationIds) {
+            for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+                weatherValues.put(WeatherEntry.COLUMN_DATE,
+                        FIRST_DATE + day * DateUtils.DAY_IN_MILLIS);
+                batch.add(weatherValues);
+                if (batch.size() == BULK_INSERT_BATCH) {
+                    elapsed += timeBulkInsert(batch);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            elapsed += timeBulkInsert(batch);
+        }
+        return elapsed;
+    }
+
+    private long timeBulkInsert(List<ContentValues> batch) {
+        ContentValues[] values = batch.toArray(new ContentValues[batch.size()]);
+        batch.clear();
+        long start = SystemClock.elapsedRealtime();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /*
+        Queries the route for locations spread over the whole table, each one a cache miss, and
+        reads every row.
+     */
+    private JSONObject timeRoute(Route route, long[] locationIds) throws JSONException {
+        int step = Math.max(1, locationIds.length / SAMPLED_LOCATIONS);
+        long[] nanos = new long[SAMPLED_LOCATIONS];
+        int queries = 0;
+        int rows = 0;
+        for (int i = 0; i < locationIds.length && queries < SAMPLED_LOCATIONS; i += step) {
+            Uri uri = route.build(TestUtilities.getSyntheticLocationSetting(i), locationIds[i]);
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            cursor.close();
+            nanos[queries++] = System.nanoTime() - start;
+        }
+
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < queries; i++) {
+            total += nanos[i];
+            max = Math.max(max, nanos[i]);
+        }
+        JSONObject timing = new JSONObject();
+        timing.put("queries", queries);
+        timing.put("rows", rows);
+        timing.put("mean_us", queries == 0 ? 0 : total / queries / 1000);
+        timing.put("max_us", max / 1000);
+        return timing;
+    }
+
+    /*
+        Reads every column of every row of the dashboard, which covers every location.
+     */
+    private JSONObject timeIteration() throws JSONException {
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardUri(FIRST_DATE, DAYS_PER_LOCATION), null, null, null,
+                null);
+        long queryNanos = System.nanoTime() - start;
+
+        int rows = 0;
+        int columns = cursor.getColumnCount();
+        start = System.nanoTime();
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columns; column++) {
+                cursor.getString(column);
+            }
+            rows++;
+        }
+        long iterateNanos = System.nanoTime() - start;
+        cursor.close();
+
+        JSONObject iteration = new JSONObject();
+        iteration.put("rows", rows);
+        iteration.put("query_ms", queryNanos / 1000000);
+        iteration.put("iterate_ms", iterateNanos / 1000000);
+        iteration.put("ns_per_row", rows == 0 ? 0 : iterateNanos / rows);
+        return iteration;
+    }
+
+    private void writeResults(JSONObject results) throws JSONException, IOException {
+        File directory = mContext.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = mContext.getFilesDir();
+        }
+        File file = new File(directory, RESULTS_FILE_NAME);
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(results.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file.getAbsolutePath());
+    }
+}
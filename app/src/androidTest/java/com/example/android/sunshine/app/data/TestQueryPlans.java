@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.DashboardEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Runs every provider route against a database with more than ten thousand weather rows, and
+    checks the query plan SQLite picks for it.  A route fails if it scans a table it's supposed
+    to search through an index, sorts when it's supposed to read rows in index order, or takes
+    longer than its time limit.
+
+    The plans come from the platform's own SQLite, the same one the app runs on.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int LOCATIONS = 700;
+    private static final int DAYS_PER_LOCATION = 16;
+    private static final int MONTHS_PER_LOCATION = 12;
+
+    // Generous, so that a slow emulator doesn't fail the build.  A route that falls back to a
+    // full scan at this size blows well past them.
+    private static final long INDEXED_MAX_MILLIS = 100;
+    private static final long SCAN_MAX_MILLIS = 1000;
+    private static final long ARCHIVE_MAX_MILLIS = 5000;
+
+    private static final Set<String> TABLES = new HashSet<String>(Arrays.asList(
+            WeatherEntry.TABLE_NAME, LocationEntry.TABLE_NAME, CurrentEntry.TABLE_NAME,
+            HistoryEntry.TABLE_NAME));
+
+    // "SCAN TABLE weather ..." on older versions of SQLite, "SCAN weather ..." on newer ones
+    private static final Pattern SCAN_PATTERN = Pattern.compile("^SCAN (?:TABLE )?(\\w+).*");
+
+    private static final String SQLITE_QUERY_PREFIX = "SQLiteQuery: ";
+
+    private final Set<String> mQueries = new LinkedHashSet<String>();
+
+    // Records the SQL of every query the provider runs.  SQLiteQuery doesn't expose its SQL, but
+    // its toString() is the prefix followed by the SQL.
+    private final SQLiteDatabase.CursorFactory mRecordingFactory = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                                SQLiteQuery query) {
+            String sql = query.toString();
+            if (sql.startsWith(SQLITE_QUERY_PREFIX)) {
+                mQueries.add(sql.substring(SQLITE_QUERY_PREFIX.length()));
+            }
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private class RecordingProvider extends WeatherProvider {
+        @Override
+        WeatherDbHelper createOpenHelper() {
+            return new WeatherDbHelper(getContext(), mRecordingFactory);
+        }
+    }
+
+    private WeatherProvider mProvider;
+    private SQLiteDatabase mExplainDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExplainDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        deleteAllRows();
+        TestUtilities.insertSyntheticLocations(mContext, LOCATIONS, DAYS_PER_LOCATION,
+                MONTHS_PER_LOCATION);
+
+        mProvider = new RecordingProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.shutdown();
+        deleteAllRows();
+        mExplainDb.close();
+        super.tearDown();
+    }
+
+    private void deleteAllRows() {
+        for (String table : TABLES) {
+            mExplainDb.delete(table, null, null);
+        }
+    }
+
+    public void testRouteQueryPlans() {
+        String setting = TestUtilities.getSyntheticLocationSetting(LOCATIONS / 2);
+        long locationId = getLocationId(setting);
+        long date = TestUtilities.TEST_DATE + 3 * DateUtils.DAY_IN_MILLIS;
+        long toDate = date + 6 * DateUtils.DAY_IN_MILLIS;
+
+        // The plain table routes take arbitrary selections, and without one they're meant to
+        // read everything.
+        checkRoute("weather", WeatherEntry.CONTENT_URI, SCAN_MAX_MILLIS, true,
+                WeatherEntry.TABLE_NAME);
+        checkRoute("location", LocationEntry.CONTENT_URI, SCAN_MAX_MILLIS, true,
+                LocationEntry.TABLE_NAME);
+        checkRoute("current", CurrentEntry.CONTENT_URI, SCAN_MAX_MILLIS, true,
+                CurrentEntry.TABLE_NAME);
+        checkRoute("history", HistoryEntry.CONTENT_URI, SCAN_MAX_MILLIS, true,
+                HistoryEntry.TABLE_NAME);
+
+        checkRoute("weather/*", WeatherEntry.buildWeatherLocation(setting),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("weather/*?date=", WeatherEntry.buildWeatherLocationWithStartDate(setting, date),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("weather/*/#", WeatherEntry.buildWeatherLocationWithDate(setting, date),
+                INDEXED_MAX_MILLIS, true);
+        // Pages are read straight off the (location_id, date) index, already sorted
+        checkRoute("weather/*/range", WeatherEntry.buildWeatherLocationWithRange(setting,
+                date, toDate, 7), INDEXED_MAX_MILLIS, false);
+        checkRoute("weather/*/stats", WeatherEntry.buildWeatherLocationStats(setting, date, toDate),
+                INDEXED_MAX_MILLIS, true);
+
+        checkRoute("location/#/weather", WeatherEntry.buildWeatherLocationId(locationId),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("location/#/weather?date=",
+                WeatherEntry.buildWeatherLocationIdWithStartDate(locationId, date),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("location/#/weather/#", WeatherEntry.buildWeatherLocationIdWithDate(locationId, date),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("location/#/current", CurrentEntry.buildCurrentLocationId(locationId),
+                INDEXED_MAX_MILLIS, true);
+
+        checkRoute("current/*", CurrentEntry.buildCurrentLocation(setting), INDEXED_MAX_MILLIS, true);
+
+        // Both read a narrow band of latitudes off the coordinate index
+        checkRoute("location/nearest", LocationEntry.buildLocationNearestUri(37.39, -122.08, 5),
+                INDEXED_MAX_MILLIS, true);
+        checkRoute("location/box", LocationEntry.buildLocationBoxUri(30, 170, 40, -170),
+                INDEXED_MAX_MILLIS, true);
+
+        checkRoute("history/*", HistoryEntry.buildHistoryLocationWithRange(setting, Long.MIN_VALUE,
+                TestUtilities.TEST_DATE), INDEXED_MAX_MILLIS, true);
+        checkRoute("history/*/stats", HistoryEntry.buildHistoryLocationStats(setting,
+                Long.MIN_VALUE, TestUtilities.TEST_DATE), INDEXED_MAX_MILLIS, true);
+
+        // Every location, but each one is a single seek into the weather index
+        checkRoute("dashboard", DashboardEntry.buildDashboardUri(date, 3), SCAN_MAX_MILLIS, true,
+                LocationEntry.TABLE_NAME);
+    }
+
+    /*
+        The sync adapter archives expired rows after every sync.  Its query, the history lookups
+        and both deletes have to go location by location through the indexes, not over the whole
+        weather table.
+     */
+    public void testArchiveQueryPlans() {
+        mQueries.clear();
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_ARCHIVE_BEFORE,
+                TestUtilities.TEST_DATE + 2 * DateUtils.DAY_IN_MILLIS);
+        long start = SystemClock.elapsedRealtime();
+        Bundle result = mProvider.call(WeatherContract.METHOD_ARCHIVE_WEATHER, null, extras);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals("Error: Archived the wrong number of rows", 2 * LOCATIONS,
+                result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+
+        assertFalse("Error: The archive didn't run a query", mQueries.isEmpty());
+        for (String sql : mQueries) {
+            checkPlan("archive", sql, true, LocationEntry.TABLE_NAME);
+        }
+        checkPlan("archive delete", "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherArchive.sExpiredSelection, true, LocationEntry.TABLE_NAME);
+        checkPlan("archive trim", WeatherArchive.sTrimLocationSql, true);
+
+        Log.i(LOG_TAG, "archive: " + elapsed + "ms");
+        assertTrue("Error: Archiving took " + elapsed + "ms", elapsed < ARCHIVE_MAX_MILLIS);
+    }
+
+    private long getLocationId(String setting) {
+        Cursor cursor = mExplainDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{setting},
+                null, null, null);
+        assertTrue("Error: Synthetic location not found", cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        cursor.close();
+        return locationId;
+    }
+
+    /**
+     * Queries the route, then checks the plan of every query it ran and how long it took.
+     *
+     * @param allowSort Whether the route may sort its rows in a temporary b-tree.
+     * @param scannedTables The tables the route is expected to read in full.
+     */
+    private void checkRoute(String route, Uri uri, long maxMillis, boolean allowSort,
+                            String... scannedTables) {
+        mQueries.clear();
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        // Moving to the end makes sure every row has been read
+        cursor.moveToLast();
+        int rows = cursor.getCount();
+        cursor.close();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertFalse("Error: " + route + " didn't run a query", mQueries.isEmpty());
+        for (String sql : mQueries) {
+            checkPlan(route, sql, allowSort, scannedTables);
+        }
+        Log.i(LOG_TAG, route + ": " + rows + " rows, " + elapsed + "ms");
+        assertTrue("Error: " + route + " took " + elapsed + "ms", elapsed < maxMillis);
+    }
+
+    private void checkPlan(String route, String sql, boolean allowSort, String... scannedTables) {
+        Set<String> scannable = new HashSet<String>(Arrays.asList(scannedTables));
+        // The plan doesn't depend on the arguments, so they're left unbound
+        Cursor plan = mExplainDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        int detailColumn = plan.getColumnIndex("detail");
+        StringBuilder planText = new StringBuilder();
+        while (plan.moveToNext()) {
+            planText.append("\n    ").append(plan.getString(detailColumn));
+        }
+        plan.moveToPosition(-1);
+        while (plan.moveToNext()) {
+            String detail = plan.getString(detailColumn);
+            Matcher matcher = SCAN_PATTERN.matcher(detail);
+            if (matcher.matches() && TABLES.contains(matcher.group(1))) {
+                assertTrue("Error: " + route + " scans " + matcher.group(1) + "\n" + sql + planText,
+                        scannable.contains(matcher.group(1)));
+            }
+            if (!allowSort) {
+                assertFalse("Error: " + route + " sorts its rows\n" + sql + planText,
+                        detail.contains("TEMP B-TREE"));
+            }
+        }
+        plan.close();
+        Log.v(LOG_TAG, route + ": " + sql + planText);
+    }
+}
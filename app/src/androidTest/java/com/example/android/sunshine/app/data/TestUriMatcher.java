@@ -34,8 +34,27 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_RANGE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE, 10);
+    private static final Uri TEST_WEATHER_STATS_ITEM = WeatherContract.WeatherEntry.buildWeatherLocationStats(LOCATION_QUERY, TEST_DATE, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAREST_DIR = WeatherContract.LocationEntry.buildLocationNearestUri(64.7488, -147.353, 3);
+    private static final Uri TEST_LOCATION_IN_BOX_DIR = WeatherContract.LocationEntry.buildLocationBoxUri(60, -150, 70, -140);
+    // content://com.example.android.sunshine.app/location/10/weather"
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_DIR = WeatherContract.WeatherEntry.buildWeatherLocationId(TEST_LOCATION_ID);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_ITEM = WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(TEST_LOCATION_ID, TEST_DATE);
+    private static final Uri TEST_CURRENT_WITH_LOCATION_ID_ITEM = WeatherContract.CurrentEntry.buildCurrentLocationId(TEST_LOCATION_ID);
+    // content://com.example.android.sunshine.app/current"
+    private static final Uri TEST_CURRENT_DIR = WeatherContract.CurrentEntry.CONTENT_URI;
+    private static final Uri TEST_CURRENT_WITH_LOCATION_ITEM = WeatherContract.CurrentEntry.buildCurrentLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/dashboard"
+    private static final Uri TEST_DASHBOARD_DIR = WeatherContract.DashboardEntry.buildDashboardUri(TEST_DATE, 3);
+    private static final Uri TEST_BACKUP = WeatherContract.BackupEntry.CONTENT_URI;
+    private static final Uri TEST_GAZETTEER_SEARCH_DIR = WeatherContract.GazetteerEntry.buildGazetteerSearchUri("new y");
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocationWithRange(LOCATION_QUERY, 0, TEST_DATE);
+    private static final Uri TEST_HISTORY_STATS_ITEM = WeatherContract.HistoryEntry.buildHistoryLocationStats(LOCATION_QUERY, 0, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +70,37 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION AND RANGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_RANGE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_RANGE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_ITEM), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST_DIR), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The LOCATION IN BOX URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_IN_BOX_DIR), WeatherProvider.LOCATION_IN_BOX);
+        assertEquals("Error: The WEATHER WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_DIR), WeatherProvider.WEATHER_WITH_LOCATION_ID);
+        assertEquals("Error: The WEATHER WITH LOCATION ID AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_ITEM), WeatherProvider.WEATHER_WITH_LOCATION_ID_AND_DATE);
+        assertEquals("Error: The CURRENT WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_WITH_LOCATION_ID_ITEM), WeatherProvider.CURRENT_WITH_LOCATION_ID);
+        assertEquals("Error: The CURRENT URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_DIR), WeatherProvider.CURRENT);
+        assertEquals("Error: The CURRENT WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_WITH_LOCATION_ITEM), WeatherProvider.CURRENT_WITH_LOCATION);
+        assertEquals("Error: The DASHBOARD URI was matched incorrectly.",
+                testMatcher.match(TEST_DASHBOARD_DIR), WeatherProvider.DASHBOARD);
+        assertEquals("Error: The BACKUP URI was matched incorrectly.",
+                testMatcher.match(TEST_BACKUP), WeatherProvider.BACKUP);
+        assertEquals("Error: The GAZETTEER SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_GAZETTEER_SEARCH_DIR), WeatherProvider.GAZETTEER_SEARCH);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_STATS_ITEM), WeatherProvider.HISTORY_STATS);
     }
 }
@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
@@ -77,6 +78,21 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        Default current conditions for a location, as the sync adapter would denormalize them.
+     */
+    static ContentValues createCurrentValues(long locationRowId) {
+        ContentValues currentValues = createWeatherValues(locationRowId);
+        currentValues.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        currentValues.putAll(createNorthPoleLocationValues());
+        currentValues.put(WeatherContract.CurrentEntry._ID, locationRowId);
+        // The current routes only return a row for today
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+
+        return currentValues;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -111,6 +127,89 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    static String getSyntheticLocationSetting(int i) {
+        return "synthetic-" + i;
+    }
+
+    /*
+        Fills the database with locationCount made up locations, each with days of weather from
+        TEST_DATE on, today's current conditions and months of history.  Rows go straight into
+        the database in one transaction, since going through the provider would make setting up
+        thousands of locations the slowest part of a test.  Returns how long the inserts took,
+        in milliseconds.
+     */
+    static long insertSyntheticLocations(Context context, int locationCount, int days, int months) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(context);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long firstDay = WeatherContract.toEpochDay(TEST_DATE);
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locationCount; i++) {
+                ContentValues locationValues = createNorthPoleLocationValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        getSyntheticLocationSetting(i));
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        -90.0 + (180.0 * i) / locationCount);
+                // Stepping by the golden ratio spreads the longitudes evenly around the globe
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                        -180.0 + 360.0 * ((i * 0.6180339887) % 1.0));
+                long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                        locationValues);
+
+                ContentValues weatherValues = createWeatherValues(locationRowId);
+                for (int day = 0; day < days; day++) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, firstDay + day);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 60 + (i + day) % 30);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                            200 + 100 * ((i + day) % 7));
+                    db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+                }
+
+                ContentValues currentValues = createCurrentValues(locationRowId);
+                currentValues.put(WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING,
+                        getSyntheticLocationSetting(i));
+                currentValues.put(WeatherContract.CurrentEntry.COLUMN_DATE,
+                        WeatherContract.toEpochDay(System.currentTimeMillis()));
+                db.insert(WeatherContract.CurrentEntry.TABLE_NAME, null, currentValues);
+
+                ContentValues historyValues = createHistoryValues(locationRowId);
+                for (int month = 1; month <= months; month++) {
+                    historyValues.put(WeatherContract.HistoryEntry.COLUMN_MONTH, firstDay - 31 * month);
+                    db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, historyValues);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        db.close();
+        return elapsed;
+    }
+
+    /*
+        A month of history for a location, as the archive would write it.  The month still has to
+        be filled in.
+     */
+    static ContentValues createHistoryValues(long locationRowId) {
+        ContentValues historyValues = new ContentValues();
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, locationRowId);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_DAYS, 30);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP, 50);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_MAX_TEMP, 80);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_MIN_TEMP, 60);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_MAX_TEMP, 70);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_HUMIDITY, 1.2);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_PRESSURE, 1.3);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_WIND_SPEED, 5.5);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_PRECIP_DAYS, 10);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_DOMINANT_WEATHER_ID, 321);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_DOMINANT_DAYS, 10);
+
+        return historyValues;
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
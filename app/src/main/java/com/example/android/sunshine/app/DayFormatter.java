@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.util.LongSparseArray;
+import android.text.format.DateUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats the days shown in the forecast, for the locale and time zone the device is in today.
+ *
+ * The labels depend on which day it is now ("Today", "Tomorrow", then day names for the rest of
+ * the week), so a formatter only lasts until midnight.  Until then it keeps its date formats
+ * and every label it has made, so that scrolling the list over the same days again formats
+ * nothing.  Changing the locale or the time zone throws it away at once.
+ */
+final class DayFormatter {
+
+    private static volatile DayFormatter sFormatter;
+    private static BroadcastReceiver sReceiver;
+
+    // The labels of a day, kept in mLabels under the day's key plus one of these
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+    private static final int LABEL_COUNT = 5;
+
+    private final Context mContext;
+    private final Locale mLocale;
+    private final TimeZone mTimeZone;
+    // Today, in days since the epoch, and when it starts and ends in milliseconds
+    private final long mToday;
+    private final long mTodayStart;
+    private final long mTomorrowStart;
+
+    private final String mTodayName;
+    private final String mTomorrowName;
+
+    // None of these are thread safe, so they're only used while holding the formatter's lock
+    private final SimpleDateFormat mDayNameFormat;
+    private final SimpleDateFormat mMonthDayFormat;
+    private final SimpleDateFormat mShortDateFormat;
+    private final LongSparseArray<String> mLabels = new LongSparseArray<String>();
+
+    private DayFormatter(Context context, long now) {
+        mContext = context;
+        mLocale = Locale.getDefault();
+        mTimeZone = TimeZone.getDefault();
+
+        Calendar calendar = Calendar.getInstance(mTimeZone, mLocale);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mTodayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DATE, 1);
+        mTomorrowStart = calendar.getTimeInMillis();
+        mToday = toEpochDay(now);
+
+        mTodayName = context.getString(R.string.today);
+        mTomorrowName = context.getString(R.string.tomorrow);
+
+        mDayNameFormat = new SimpleDateFormat("EEEE", mLocale);
+        mMonthDayFormat = new SimpleDateFormat("MMMM dd", mLocale);
+        mShortDateFormat = new SimpleDateFormat("EEE MMM dd", mLocale);
+    }
+
+    /**
+     * Returns the formatter for today.
+     */
+    static DayFormatter get(Context context) {
+        long now = System.currentTimeMillis();
+        DayFormatter formatter = sFormatter;
+        if (formatter == null || now < formatter.mTodayStart || now >= formatter.mTomorrowStart ||
+                !formatter.mLocale.equals(Locale.getDefault())) {
+            formatter = create(context.getApplicationContext(), now);
+        }
+        return formatter;
+    }
+
+    private static synchronized DayFormatter create(Context context, long now) {
+        if (sReceiver == null) {
+            sReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    sFormatter = null;
+                }
+            };
+            IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            context.registerReceiver(sReceiver, filter);
+        }
+        DayFormatter formatter = new DayFormatter(context, now);
+        sFormatter = formatter;
+        return formatter;
+    }
+
+    /*
+        The day since the epoch in this formatter's time zone, like WeatherContract.toEpochDay but
+        without allocating a Time.
+     */
+    private long toEpochDay(long dateInMillis) {
+        long localMillis = dateInMillis + mTimeZone.getOffset(dateInMillis);
+        long day = localMillis / DateUtils.DAY_IN_MILLIS;
+        return localMillis < 0 && localMillis % DateUtils.DAY_IN_MILLIS != 0 ? day - 1 : day;
+    }
+
+    /**
+     * See {@link Utility#getFriendlyDayString(Context, long, boolean)}.
+     */
+    String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getLabel(dateInMillis,
+                displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY);
+    }
+
+    /**
+     * See {@link Utility#getFullFriendlyDayString(Context, long)}.
+     */
+    String getFullFriendlyDayString(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_FULL_FRIENDLY);
+    }
+
+    /**
+     * See {@link Utility#getDayName(Context, long)}.
+     */
+    String getDayName(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_DAY_NAME);
+    }
+
+    /**
+     * See {@link Utility#getFormattedMonthDay(Context, long)}.
+     */
+    String getFormattedMonthDay(long dateInMillis) {
+        return getLabel(dateInMillis, LABEL_MONTH_DAY);
+    }
+
+    private synchronized String getLabel(long dateInMillis, int label) {
+        long day = toEpochDay(dateInMillis);
+        long key = day * LABEL_COUNT + label;
+        String text = mLabels.get(key);
+        if (text == null) {
+            text = formatLabel(dateInMillis, day, label);
+            mLabels.put(key, text);
+        }
+        return text;
+    }
+
+    private String formatLabel(long dateInMillis, long day, int label) {
+        switch (label) {
+            case LABEL_FRIENDLY_LONG_TODAY:
+                // For today: "Today, June 8"
+                if (day == mToday) {
+                    return mContext.getString(R.string.format_full_friendly_date, mTodayName,
+                            getLabel(dateInMillis, LABEL_MONTH_DAY));
+                }
+                return getLabel(dateInMillis, LABEL_FRIENDLY);
+            case LABEL_FRIENDLY:
+                // For the next week: "Tomorrow", then just the day name.  After that "Mon Jun 8"
+                if (day < mToday + 7) {
+                    return getLabel(dateInMillis, LABEL_DAY_NAME);
+                }
+                return mShortDateFormat.format(dateInMillis);
+            case LABEL_FULL_FRIENDLY:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        getLabel(dateInMillis, LABEL_DAY_NAME),
+                        getLabel(dateInMillis, LABEL_MONTH_DAY));
+            case LABEL_DAY_NAME:
+                if (day == mToday) {
+                    return mTodayName;
+                } else if (day == mToday + 1) {
+                    return mTomorrowName;
+                }
+                return mDayNameFormat.format(dateInMillis);
+            case LABEL_MONTH_DAY:
+                return mMonthDayFormat.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown label: " + label);
+        }
+    }
+}
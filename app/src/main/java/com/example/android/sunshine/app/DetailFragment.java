@@ -19,14 +19,15 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.ShareActionProvider;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -34,12 +35,12 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * A placeholder fragment containing a simple view.
@@ -49,44 +50,23 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
     static final String DETAIL_TRANSITION_ANIMATION = "DTA";
+    // The SystemClock.uptimeMillis of the tap that showed the forecast, if it was one
+    static final String DETAIL_TAP_TIME = "DTT";
 
     private static final String FORECAST_SHARE_HASHTAG = " #SunshineApp";
 
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    // The forecast shown, so that a load which only confirms it changes nothing
+    private ForecastItem mShownItem;
+    // When the row shown was tapped, and how long after that it was drawn, or -1 until it is.
+    // Logged with debug logging on for DetailFragment.
+    private long mTapTime = -1;
+    private volatile long mTimeToContent = -1;
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
-
     private ImageView mIconView;
     private TextView mDateView;
     private TextView mDescriptionView;
@@ -111,6 +91,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         if (arguments != null) {
             mUri = arguments.getParcelable(DetailFragment.DETAIL_URI);
             mTransitionAnimation = arguments.getBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, false);
+            mTapTime = arguments.getLong(DetailFragment.DETAIL_TAP_TIME, -1);
         }
 
         View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
@@ -153,6 +134,12 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
+        // The list has usually just loaded the row, so show it from there while the loader
+        // checks it against the database
+        ForecastItem item = ForecastCache.findItem(getActivity(), mUri);
+        if (null != item) {
+            showForecast(item);
+        }
         getLoaderManager().initLoader(DETAIL_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -171,15 +158,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
-            // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
+            // Now create and return a loader that will take care of
+            // creating a Cursor for the data being displayed, and the ForecastItem to show
+            return new ForecastLoader(
                     getActivity(),
                     mUri,
-                    DETAIL_COLUMNS,
+                    ForecastFragment.FORECAST_COLUMNS,
+                    0,
                     null,
-                    null,
-                    null
+                    false
             );
         }
         ViewParent vp = getView().getParent();
@@ -191,79 +178,78 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
-
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
+        ForecastItem item = null;
+        if (data instanceof ForecastLoader.ForecastCursor) {
+            ForecastItem[] items = ((ForecastLoader.ForecastCursor) data).getItems();
+            if (items.length > 0) {
+                item = items[0];
             }
+        }
+        if (null == item) {
+            onForecastShown();
+        } else if (null == mShownItem || !mShownItem.hasSameDetails(item)) {
+            showForecast(item);
+        }
+    }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    private void showForecast(ForecastItem item) {
+        mShownItem = item;
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
 
+        if ( null == item.artUrl ) {
+            mIconView.setImageResource(item.artResourceId);
+        } else {
+            // Use weather art image, at the size today's row in the list loads it
+            int artSize = WeatherArt.getArtSize(getActivity());
+            WeatherArt.load(Glide.with(this), item.artUrl)
+                    .override(artSize, artSize)
+                    .error(item.artResourceId)
+                    .crossFade()
+                    .into(mIconView);
         }
+
+        // Update views for day of week and date
+        String dateText = Utility.getFullFriendlyDayString(getActivity(), item.date);
+        mDateView.setText(dateText);
+
+        mDescriptionView.setText(item.description);
+        mDescriptionView.setContentDescription(item.descriptionContentDescription);
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, item.description));
+
+        mHighTempView.setText(item.highText);
+        mHighTempView.setContentDescription(item.highContentDescription);
+
+        mLowTempView.setText(item.lowText);
+        mLowTempView.setContentDescription(item.lowContentDescription);
+
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity, item.humidity));
+        mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
+        mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
+
+        mWindView.setText(Utility.getFormattedWind(getActivity(), item.windSpeed, item.degrees));
+        mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
+        mWindLabelView.setContentDescription(mWindView.getContentDescription());
+
+        mPressureView.setText(getString(R.string.format_pressure, item.pressure));
+        mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
+        mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", dateText, item.description, item.high,
+                item.low);
+
+        onForecastShown();
+    }
+
+    private void onForecastShown() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -285,6 +271,32 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 finishCreatingMenu(toolbarView.getMenu());
             }
         }
+
+        if ( -1 != mTapTime && null != mShownItem ) {
+            // Only the first forecast shown after the tap is timed
+            final long tapTime = mTapTime;
+            mTapTime = -1;
+            final View view = getView();
+            view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    view.getViewTreeObserver().removeOnPreDrawListener(this);
+                    mTimeToContent = SystemClock.uptimeMillis() - tapTime;
+                    if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                        Log.d(LOG_TAG, "Forecast drawn " + mTimeToContent + "ms after the tap");
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns how long after the tap that showed it the forecast was drawn, or -1 if it hasn't
+     * been yet, or wasn't shown by a tap.
+     */
+    long getTimeToContent() {
+        return mTimeToContent;
     }
 
     @Override
@@ -17,11 +17,10 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,26 +29,40 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.PositionFinder {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    // Ask for the next page once we bind a row this close to the end of what we have.
+    private static final int LOAD_MORE_THRESHOLD = 4;
+
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // The rows of mCursor, ready to show
+    private ForecastItem[] mItems;
+    private ForecastDateIndex mDateIndex;
     final private Context mContext;
+    // The sizes the art is loaded at for the rows, see WeatherArt
+    final private int mIconSize;
+    final private int mArtSize;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
 
+    private ForecastAdapterLoadMoreHandler mLoadMoreHandler;
+    // True if the last page came back full, so there may be more rows after it
+    private boolean mHasMore;
+    private boolean mLoadingMore;
+
     /**
      * Cache of the children views for a forecast list item.
      */
@@ -73,9 +86,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // Tapped while the row was being removed, or before a change to the list was
+                // laid out
+                return;
+            }
+            mClickHandler.onClick(mItems[adapterPosition].date, this);
             mICM.onClick(this);
         }
     }
@@ -84,10 +100,23 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         void onClick(Long date, ForecastAdapterViewHolder vh);
     }
 
+    public static interface ForecastAdapterLoadMoreHandler {
+        /**
+         * Called when the list gets close to the last row we have, and more might be available.
+         * The next call to {@link #appendItems(ForecastItem[], boolean)} or
+         * {@link #swapCursor(Cursor, boolean)} ends the request.
+         */
+        void onLoadMore();
+    }
+
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
+        mIconSize = WeatherArt.getIconSize(context);
+        mArtSize = WeatherArt.getArtSize(context);
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Has to be set before the ItemChoiceManager starts observing the adapter
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,26 +153,27 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Everything shown was formatted when the list loaded, see ForecastItem
+        ForecastItem item = mItems[position];
         int defaultImage;
-        boolean useLongToday;
+        String dayText;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = item.artResourceId;
+                dayText = item.todayText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = item.iconResourceId;
+                dayText = item.dayText;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == item.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+            int size = getArtSize(position);
+            WeatherArt.load(Glide.with(mContext), item.artUrl)
+                    .override(size, size)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -151,38 +181,30 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, item.iconTransitionName);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(dayText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(item.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(item.descriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(item.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(item.highContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(item.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(item.lowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        if (mHasMore && !mLoadingMore && null != mLoadMoreHandler &&
+                position >= getItemCount() - LOAD_MORE_THRESHOLD) {
+            mLoadingMore = true;
+            mLoadMoreHandler.onLoadMore();
+        }
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -206,22 +228,127 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    /**
+     * Returns the size the art of the row at the position is loaded at.
+     */
+    int getArtSize(int position) {
+        return getItemViewType(position) == VIEW_TYPE_TODAY ? mArtSize : mIconSize;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // There's one row a day, and a day's row keeps its date through syncs
+        return mItems[position].date;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null == mItems ) return 0;
+        return mItems.length;
+    }
+
+    public void setLoadMoreHandler(ForecastAdapterLoadMoreHandler loadMoreHandler) {
+        mLoadMoreHandler = loadMoreHandler;
     }
 
     public void swapCursor(Cursor newCursor) {
+        swapCursor(newCursor, false);
+    }
+
+    /**
+     * @param hasMore true if newCursor may not hold all of the rows, in which case the
+     *                load more handler gets called as the user scrolls towards the end.
+     */
+    public void swapCursor(Cursor newCursor, boolean hasMore) {
+        ForecastItem[] oldItems = mItems;
+        DiffUtil.DiffResult diff = null;
         mCursor = newCursor;
+        if ( null == newCursor ) {
+            mItems = null;
+            mDateIndex = null;
+        } else if ( newCursor instanceof ForecastLoader.ForecastCursor ) {
+            ForecastLoader.ForecastCursor forecastCursor = (ForecastLoader.ForecastCursor) newCursor;
+            mItems = forecastCursor.getItems();
+            mDateIndex = forecastCursor.getDateIndex();
+            diff = forecastCursor.getDiffFrom(oldItems);
+        } else {
+            // Not from a ForecastLoader, so the rows have to be formatted here and now
+            mItems = ForecastItem.fromCursor(mContext, newCursor);
+            mDateIndex = ForecastDateIndex.build(mItems);
+        }
+        mHasMore = hasMore;
+        mLoadingMore = false;
+        if ( null != diff ) {
+            // Only the rows that changed get bound again, or animated
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows rows kept from an earlier load until the loader delivers a cursor, see
+     * {@link ForecastCache}.
+     */
+    void showCachedItems(ForecastCache cache) {
+        mCursor = null;
+        mItems = cache.items;
+        mDateIndex = cache.dateIndex;
+        mHasMore = false;
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * Adds a page of rows after the ones shown, as loaded from
+     * {@link com.example.android.sunshine.app.data.WeatherContract.WeatherEntry#buildNextPage}.
+     *
+     * @param hasMore true if the page came back full, so there may be more rows after it.
+     */
+    void appendItems(ForecastItem[] page, boolean hasMore) {
+        int start = getItemCount();
+        if ( 0 != page.length ) {
+            ForecastItem[] items = new ForecastItem[start + page.length];
+            if ( 0 != start ) {
+                System.arraycopy(mItems, 0, items, 0, start);
+            }
+            System.arraycopy(page, 0, items, start, page.length);
+            mItems = items;
+            mDateIndex = ForecastDateIndex.build(items);
+        }
+        mHasMore = hasMore;
+        mLoadingMore = false;
+        notifyItemRangeInserted(start, page.length);
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
 
+    /**
+     * Returns the position of the row for the day of the given date, or RecyclerView.NO_POSITION
+     * if it isn't in the list.
+     */
+    public int getPositionForDate(long date) {
+        if ( null == mDateIndex ) return RecyclerView.NO_POSITION;
+        return mDateIndex.getPosition(date);
+    }
+
+    @Override
+    public int findPosition(long id) {
+        // The ids are the dates
+        return getPositionForDate(id);
+    }
+
+    /**
+     * Returns the items of the rows shown, or null if there's no cursor.
+     */
+    ForecastItem[] getItems() {
+        return mItems;
+    }
+
     public void selectView(RecyclerView.ViewHolder viewHolder) {
         if ( viewHolder instanceof ForecastAdapterViewHolder ) {
             ForecastAdapterViewHolder vfh = (ForecastAdapterViewHolder)viewHolder;
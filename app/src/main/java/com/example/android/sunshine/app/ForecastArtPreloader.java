@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.bumptech.glide.GenericRequestBuilder;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestManager;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the art of the forecast rows just past the ones on screen, in the direction the list is
+ * scrolling, so that it's in Glide's memory cache by the time the rows are bound.
+ *
+ * Glide's ListPreloader does the work, but only listens to ListViews, so this passes it the
+ * visible rows of the RecyclerView as it scrolls.  The art is preloaded at the size the row
+ * loads it at, which is what makes the row's load find it.
+ */
+class ForecastArtPreloader extends RecyclerView.OnScrollListener
+        implements ListPreloader.PreloadModelProvider<ForecastItem>,
+        ListPreloader.PreloadSizeProvider<ForecastItem> {
+
+    // A screen or so of rows
+    private static final int MAX_PRELOAD = 8;
+
+    private final ForecastAdapter mAdapter;
+    private final RequestManager mRequestManager;
+    private final ListPreloader<ForecastItem> mPreloader;
+    // Handed to the ListPreloader, which reads them straight away
+    private final int[] mIconDimensions;
+    private final int[] mArtDimensions;
+
+    ForecastArtPreloader(Context context, ForecastAdapter adapter,
+                         RequestManager requestManager) {
+        mAdapter = adapter;
+        mRequestManager = requestManager;
+        mPreloader = new ListPreloader<ForecastItem>(this, this, MAX_PRELOAD);
+        int iconSize = WeatherArt.getIconSize(context);
+        int artSize = WeatherArt.getArtSize(context);
+        mIconDimensions = new int[]{iconSize, iconSize};
+        mArtDimensions = new int[]{artSize, artSize};
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+            int first = linearLayoutManager.findFirstVisibleItemPosition();
+            int last = linearLayoutManager.findLastVisibleItemPosition();
+            if (first != RecyclerView.NO_POSITION) {
+                // The ListPreloader doesn't look at the list, only at the positions
+                mPreloader.onScroll(null, first, last - first + 1, mAdapter.getItemCount());
+            }
+        }
+    }
+
+    @Override
+    public List<ForecastItem> getPreloadItems(int position) {
+        ForecastItem[] items = mAdapter.getItems();
+        if (null == items || position >= items.length || null == items[position].artUrl) {
+            // Nothing to load with the local graphics
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(items[position]);
+    }
+
+    @Override
+    public GenericRequestBuilder getPreloadRequestBuilder(ForecastItem item) {
+        // The size comes from getPreloadSize
+        return WeatherArt.load(mRequestManager, item.artUrl);
+    }
+
+    @Override
+    public int[] getPreloadSize(ForecastItem item, int adapterPosition, int perItemPosition) {
+        return mAdapter.getArtSize(adapterPosition) == mIconDimensions[0] ?
+                mIconDimensions : mArtDimensions;
+    }
+}
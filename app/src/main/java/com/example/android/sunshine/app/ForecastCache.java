@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+
+/**
+ * The forecast rows last loaded in this process, so that the list can be drawn from them at once
+ * when MainActivity starts again, and the detail screen of a row as soon as it's tapped, while
+ * their loaders check them against the database.
+ *
+ * The rows were formatted with the settings, locale and day of the time they were loaded, so
+ * they're only given out while all of those still hold.  The settings are compared by snapshot,
+ * as any change to them replaces it, which throws the rows away for a change of location too.
+ */
+final class ForecastCache {
+
+    private static volatile ForecastCache sCache;
+
+    private final SunshineSettings mSettings;
+    private final Locale mLocale;
+    private final long mDay;
+    final ForecastItem[] items;
+    final ForecastDateIndex dateIndex;
+
+    private ForecastCache(SunshineSettings settings, Locale locale, long day,
+                          ForecastItem[] items, ForecastDateIndex dateIndex) {
+        mSettings = settings;
+        mLocale = locale;
+        mDay = day;
+        this.items = items;
+        this.dateIndex = dateIndex;
+    }
+
+    /**
+     * Keeps the rows of a load.
+     *
+     * @param settings The settings read before the rows were formatted.  If they changed while
+     *                 formatting, the rows are never given out, which is the safe way round.
+     */
+    static void put(SunshineSettings settings, ForecastItem[] items, ForecastDateIndex dateIndex) {
+        sCache = new ForecastCache(settings, Locale.getDefault(),
+                WeatherContract.toEpochDay(System.currentTimeMillis()), items, dateIndex);
+    }
+
+    /**
+     * Returns the rows last kept, or null if there are none or they no longer hold.
+     */
+    static ForecastCache get(Context context) {
+        ForecastCache cache = sCache;
+        if (null == cache || cache.mSettings != SunshineSettings.get(context) ||
+                !cache.mLocale.equals(Locale.getDefault()) ||
+                cache.mDay != WeatherContract.toEpochDay(System.currentTimeMillis())) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the row kept for the weather of a location on a date, as in
+     * WeatherEntry.buildWeatherLocationWithDate, or null if it isn't kept or no longer holds.
+     */
+    static ForecastItem findItem(Context context, Uri weatherUri) {
+        ForecastCache cache = get(context);
+        if (null == cache || null == weatherUri || !cache.mSettings.getLocation().equals(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(weatherUri))) {
+            return null;
+        }
+        int position = cache.dateIndex.getPosition(
+                WeatherContract.WeatherEntry.getDateFromUri(weatherUri));
+        return position == RecyclerView.NO_POSITION ? null : cache.items[position];
+    }
+
+    static void clear() {
+        sCache = null;
+    }
+}
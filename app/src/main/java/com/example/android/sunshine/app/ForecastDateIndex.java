@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+
+/**
+ * Finds the position of a day in the forecast list without going through the cursor, so that
+ * the selection can be restored while a shared element transition is waiting on it.
+ *
+ * The list has one row a day, sorted by date and usually with no gaps, so the positions are
+ * kept in a table with a slot for every day from the first row's to the last's.
+ */
+final class ForecastDateIndex {
+
+    // Days with no row get this in the table
+    private static final int NO_ROW = -1;
+
+    private final long mFirstDay;
+    private final int[] mPositions;
+
+    private ForecastDateIndex(long firstDay, int[] positions) {
+        mFirstDay = firstDay;
+        mPositions = positions;
+    }
+
+    /**
+     * Builds the index of the items, which must be sorted by date.
+     */
+    static ForecastDateIndex build(ForecastItem[] items) {
+        if (items.length == 0) {
+            return new ForecastDateIndex(0, new int[0]);
+        }
+        long firstDay = items[0].day;
+        long lastDay = items[items.length - 1].day;
+        // Rows are a day apart, so this only grows past the number of rows when some are missing
+        // and then it's by no more than the days missing
+        int[] positions = new int[(int) (lastDay - firstDay + 1)];
+        Arrays.fill(positions, NO_ROW);
+        for (int i = 0; i < items.length; i++) {
+            positions[(int) (items[i].day - firstDay)] = i;
+        }
+        return new ForecastDateIndex(firstDay, positions);
+    }
+
+    /**
+     * Returns the position of the row for the day of the given date, at any time of that day, or
+     * RecyclerView.NO_POSITION if there's none.
+     */
+    int getPosition(long dateInMillis) {
+        long slot = WeatherContract.toEpochDay(dateInMillis) - mFirstDay;
+        if (slot < 0 || slot >= mPositions.length || mPositions[(int) slot] == NO_ROW) {
+            return RecyclerView.NO_POSITION;
+        }
+        return mPositions[(int) slot];
+    }
+}
@@ -28,8 +28,8 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -45,6 +45,7 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -61,8 +62,27 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private long mInitialSelectedDate = -1;
 
     private static final String SELECTED_KEY = "selected_position";
+    private static final String FORECAST_LIMIT_KEY = "forecast_limit";
 
     private static final int FORECAST_LOADER = 0;
+    private static final int FORECAST_PAGE_LOADER = 1;
+
+    // Arguments of the page loader: the date of the last row shown, which the page starts after,
+    // and the position its first row goes in
+    private static final String ARG_AFTER_DATE = "after_date";
+    private static final String ARG_FIRST_POSITION = "first_position";
+
+    // Rows are loaded a page at a time, and the page loader adds the next page after the last
+    // date shown as the user scrolls towards the end.  Two weeks covers the whole forecast in the
+    // common case.
+    private static final int FORECAST_PAGE_SIZE = 14;
+    // The rows the forecast loader loads, which grows to cover the pages added after it so that
+    // reloading it after a change doesn't drop them
+    private int mForecastLimit = FORECAST_PAGE_SIZE;
+    // Set while the forecast loader reloads the pages already shown, which shouldn't move the
+    // list around
+    private boolean mReloadingPages;
+
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -80,7 +100,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            // Not shown in the list, but kept with its rows so that the detail screen can be
+            // shown from them straight away, see DetailFragment
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +120,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_HUMIDITY = 9;
+    static final int COL_WEATHER_PRESSURE = 10;
+    static final int COL_WEATHER_WIND_SPEED = 11;
+    static final int COL_WEATHER_DEGREES = 12;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -105,6 +135,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
          * DetailFragmentCallback for when an item has been selected.
          */
         public void onItemSelected(Uri dateUri, ForecastAdapter.ForecastAdapterViewHolder vh);
+
+        /**
+         * Called each time a load of the forecast has been laid out, or turned out empty.
+         */
+        public void onForecastShown();
     }
 
     public ForecastFragment() {
@@ -197,8 +232,25 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             }
         }, emptyView, mChoiceMode);
 
+        mForecastAdapter.setLoadMoreHandler(new ForecastAdapter.ForecastAdapterLoadMoreHandler() {
+            @Override
+            public void onLoadMore() {
+                ForecastItem[] items = mForecastAdapter.getItems();
+                if (null == items || 0 == items.length) {
+                    return;
+                }
+                Bundle args = new Bundle();
+                args.putLong(ARG_AFTER_DATE, items[items.length - 1].date);
+                args.putInt(ARG_FIRST_POSITION, items.length);
+                getLoaderManager().restartLoader(FORECAST_PAGE_LOADER, args,
+                        ForecastFragment.this);
+            }
+        });
+
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
+        mRecyclerView.addOnScrollListener(
+                new ForecastArtPreloader(getActivity(), mForecastAdapter, Glide.with(this)));
 
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
@@ -244,10 +296,21 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // actually *lost*.
         if (savedInstanceState != null) {
             mForecastAdapter.onRestoreInstanceState(savedInstanceState);
+            mForecastLimit = savedInstanceState.getInt(FORECAST_LIMIT_KEY, FORECAST_PAGE_SIZE);
         }
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
 
+        // Draw the rows from the last time while the loader checks them, which it does by
+        // comparing, so only the rows that changed get bound again
+        ForecastCache cache = ForecastCache.get(getActivity());
+        if (null != cache) {
+            while (mForecastLimit < cache.items.length) {
+                mForecastLimit += FORECAST_PAGE_SIZE;
+            }
+            mForecastAdapter.showCachedItems(cache);
+        }
+
         return rootView;
     }
 
@@ -260,11 +323,16 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             getActivity().supportPostponeEnterTransition();
         }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        // A page being loaded before a rotation was for the list that was shown then
+        getLoaderManager().destroyLoader(FORECAST_PAGE_LOADER);
         super.onActivityCreated(savedInstanceState);
     }
 
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
+        mForecastLimit = FORECAST_PAGE_SIZE;
+        mReloadingPages = false;
+        getLoaderManager().destroyLoader(FORECAST_PAGE_LOADER);
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
@@ -273,11 +341,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            // Read from the items rather than the cursor, as the list may be showing the rows
+            // kept from the last time while the loader runs
+            ForecastItem[] items = mForecastAdapter.getItems();
+            if (null != items && items.length > 0) {
+                String posLat = items[0].coordLat;
+                String posLong = items[0].coordLong;
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -297,39 +366,88 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSaveInstanceState(Bundle outState) {
         // When tablets rotate, the currently selected list item needs to be saved.
         mForecastAdapter.onSaveInstanceState(outState);
+        // So the pages scrolled to are loaded again, see onLoadFinished
+        outState.putInt(FORECAST_LIMIT_KEY, mForecastLimit);
         super.onSaveInstanceState(outState);
     }
 
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
-
         // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
+        // dates after or including today.  The range route always sorts ascending, by date.
+        String locationSetting = Utility.getPreferredLocation(getActivity());
 
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        if (FORECAST_PAGE_LOADER == i) {
+            // The page after the last row shown, which the provider finds with a seek on the
+            // date rather than reading past the rows before it
+            Uri pageUri = WeatherContract.WeatherEntry.buildNextPage(
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithRange(locationSetting,
+                            System.currentTimeMillis(), Long.MAX_VALUE, FORECAST_PAGE_SIZE),
+                    bundle.getLong(ARG_AFTER_DATE));
+            return new ForecastLoader(getActivity(),
+                    pageUri,
+                    FORECAST_COLUMNS,
+                    bundle.getInt(ARG_FIRST_POSITION),
+                    null,
+                    false);
+        }
 
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                locationSetting, System.currentTimeMillis(), Long.MAX_VALUE, mForecastLimit);
 
-        return new CursorLoader(getActivity(),
+        // Formats the rows too, so that binding them doesn't have to, and works out which of
+        // the rows shown now have changed
+        return new ForecastLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+                0,
+                mForecastAdapter.getItems(),
+                true);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
-        updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if (FORECAST_PAGE_LOADER == loader.getId()) {
+            onPageLoadFinished(data);
+            return;
+        }
+        // The loader may have been created before a rotation, so its limit comes from its URI
+        int loaderLimit = WeatherContract.WeatherEntry.getLimitFromUri(
+                ((ForecastLoader) loader).getUri());
+        if (loaderLimit < mForecastLimit) {
+            // Pages were added since the loader was created, and it's reloading after a change
+            // or a rotation, so load them all again rather than drop them.  Posted, as loaders
+            // can't be restarted from their own callbacks.
+            // After a rotation nothing's been shown from the loader yet, so that still has to
+            // happen when the reload finishes
+            mReloadingPages = null != mForecastAdapter.getCursor();
+            mRecyclerView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isAdded()) {
+                        getLoaderManager().restartLoader(FORECAST_LOADER, null,
+                                ForecastFragment.this);
+                    }
+                }
+            });
+            return;
+        }
+        int count = null == data ? 0 : data.getCount();
+        TraceCompat.beginSection("ForecastFragment.onLoadFinished");
+        try {
+            // A full page means there may be more rows after it
+            mForecastAdapter.swapCursor(data, count >= loaderLimit);
+            updateEmptyView();
+        } finally {
+            TraceCompat.endSection();
+        }
+        if ( mReloadingPages ) {
+            // Only rows the user has already scrolled past were reloaded
+            mReloadingPages = false;
+        } else if ( count == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
+            ((Callback) getActivity()).onForecastShown();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
                 @Override
@@ -341,16 +459,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            // Looked up in the index built with the rows, so the transition
+                            // waiting on this doesn't wait on the cursor too
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
@@ -363,17 +474,41 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         if ( mHoldForTransition ) {
                             getActivity().supportStartPostponedEnterTransition();
                         }
+                        ((Callback) getActivity()).onForecastShown();
                         return true;
                     }
                     return false;
                 }
             });
+            // A load that changed none of the rows already shown doesn't redraw the list by
+            // itself, and the listener has to run for the transition to start
+            mRecyclerView.invalidate();
         }
 
     }
 
 
 
+    /*
+        Adds a page loaded after the rows shown.  A page that no longer follows them, because the
+        forecast was reloaded since it was asked for, or delivered again after a change, is
+        left out.
+     */
+    private void onPageLoadFinished(Cursor data) {
+        if (!(data instanceof ForecastLoader.ForecastCursor)) {
+            // The query failed, so stop asking
+            mForecastAdapter.appendItems(new ForecastItem[0], false);
+            return;
+        }
+        ForecastLoader.ForecastCursor page = (ForecastLoader.ForecastCursor) data;
+        if (page.getFirstPosition() != mForecastAdapter.getItemCount()) {
+            return;
+        }
+        ForecastItem[] items = page.getItems();
+        mForecastAdapter.appendItems(items, items.length >= FORECAST_PAGE_SIZE);
+        mForecastLimit = Math.max(mForecastLimit, mForecastAdapter.getItemCount());
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -384,6 +519,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (FORECAST_LOADER != loader.getId()) {
+            // The rows of a page were copied into the adapter's items
+            return;
+        }
         mForecastAdapter.swapCursor(null);
     }
 
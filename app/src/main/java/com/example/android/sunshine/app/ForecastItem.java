@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * One row of the forecast list, with everything {@link ForecastAdapter} shows already formatted.
+ *
+ * The formatting reads preferences and builds date formats, so it's done once per row when the
+ * list loads, off the main thread, rather than every time a row scrolls into view.  Items never
+ * change once built; a change to the units or the art pack reloads the list instead.
+ */
+final class ForecastItem {
+
+    final long date;
+    // The date as a day since the epoch, see WeatherContract.toEpochDay
+    final long day;
+    final int weatherId;
+
+    // The art is shown on the "today" row, the icon on all the others
+    final int artResourceId;
+    final int iconResourceId;
+    // Null when the local graphics are used
+    final String artUrl;
+
+    final String dayText;
+    // The day as the "today" row shows it, which is longer when it really is today
+    final String todayText;
+    final String description;
+    final String descriptionContentDescription;
+    final String highText;
+    final String highContentDescription;
+    final String lowText;
+    final String lowContentDescription;
+
+    // Lets the shared element transition find the icon again after a rotation
+    final String iconTransitionName;
+
+    // The rest of the forecast, which only the detail screen shows
+    final double high;
+    final double low;
+    final float humidity;
+    final float pressure;
+    final float windSpeed;
+    final float degrees;
+
+    // Where the location is, for the map, which can then be shown from the rows ForecastCache
+    // kept before the loader has delivered a cursor
+    final String coordLat;
+    final String coordLong;
+
+    private ForecastItem(Context context, Cursor cursor, SunshineSettings settings, int position) {
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        day = WeatherContract.toEpochDay(date);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = settings.usingLocalGraphics() ? null :
+                Utility.getArtUrlForWeatherCondition(settings, weatherId);
+
+        dayText = Utility.getFriendlyDayString(context, date, false);
+        // Only the first row can be shown with the "today" layout
+        todayText = position == 0 ? Utility.getFriendlyDayString(context, date, true) : dayText;
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+
+        high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        highText = Utility.formatTemperature(context, settings, high);
+        highContentDescription = context.getString(R.string.a11y_high_temp, highText);
+        low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        lowText = Utility.formatTemperature(context, settings, low);
+        lowContentDescription = context.getString(R.string.a11y_low_temp, lowText);
+
+        iconTransitionName = "iconView" + position;
+
+        humidity = cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY);
+        pressure = cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE);
+        windSpeed = cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED);
+        degrees = cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES);
+
+        coordLat = cursor.getString(ForecastFragment.COL_COORD_LAT);
+        coordLong = cursor.getString(ForecastFragment.COL_COORD_LONG);
+    }
+
+    /**
+     * True if the item shows the same as another, so a row showing the other doesn't need to be
+     * bound again.
+     */
+    boolean hasSameContents(ForecastItem other) {
+        return date == other.date &&
+                weatherId == other.weatherId &&
+                artResourceId == other.artResourceId &&
+                iconResourceId == other.iconResourceId &&
+                TextUtils.equals(artUrl, other.artUrl) &&
+                dayText.equals(other.dayText) &&
+                todayText.equals(other.todayText) &&
+                description.equals(other.description) &&
+                highText.equals(other.highText) &&
+                lowText.equals(other.lowText) &&
+                iconTransitionName.equals(other.iconTransitionName);
+    }
+
+    /**
+     * True if the detail screen shows the same for the item as for another.
+     */
+    boolean hasSameDetails(ForecastItem other) {
+        return date == other.date &&
+                weatherId == other.weatherId &&
+                TextUtils.equals(artUrl, other.artUrl) &&
+                description.equals(other.description) &&
+                high == other.high &&
+                low == other.low &&
+                highText.equals(other.highText) &&
+                lowText.equals(other.lowText) &&
+                humidity == other.humidity &&
+                pressure == other.pressure &&
+                windSpeed == other.windSpeed &&
+                degrees == other.degrees;
+    }
+
+    /**
+     * Builds the items for every row of a cursor with the columns of
+     * ForecastFragment.FORECAST_COLUMNS.  Reads the preferences and resources, so call it off the
+     * main thread.
+     */
+    static ForecastItem[] fromCursor(Context context, Cursor cursor) {
+        return fromCursor(context, cursor, 0);
+    }
+
+    /**
+     * As above, for a page of the list whose first row is at firstPosition.
+     */
+    static ForecastItem[] fromCursor(Context context, Cursor cursor, int firstPosition) {
+        ForecastItem[] items = new ForecastItem[cursor.getCount()];
+        // Every row is built from the same settings, even if they change halfway through
+        SunshineSettings settings = SunshineSettings.get(context);
+        int position = cursor.getPosition();
+        for (int i = 0; i < items.length; i++) {
+            cursor.moveToPosition(i);
+            items[i] = new ForecastItem(context, cursor, settings, firstPosition + i);
+        }
+        cursor.moveToPosition(position);
+        return items;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.util.DiffUtil;
+import android.util.Log;
+
+/**
+ * Loads the forecast list along with its {@link ForecastItem}s, so that the rows are formatted on
+ * the loader's thread and {@link ForecastAdapter} only has to set them on the views.
+ *
+ * Each load is also compared with the rows the list showed before it, on the same thread, so
+ * that a sync which changed one day only rebinds that day's row.
+ */
+class ForecastLoader extends CursorLoader {
+    private static final String LOG_TAG = ForecastLoader.class.getSimpleName();
+
+    // The items of the last load, or of whatever the list showed before this loader's first
+    private volatile ForecastItem[] mPreviousItems;
+    private final int mFirstPosition;
+    private final boolean mCacheItems;
+
+    /**
+     * @param projection    ForecastFragment.FORECAST_COLUMNS, or columns starting with them.
+     * @param firstPosition The position in the list of the first row loaded, which is 0 unless
+     *                      this loads a later page.
+     * @param previousItems The items the list shows now, which the first load is compared with.
+     *                      Null if there's nothing worth comparing with.
+     * @param cacheItems    True to keep the items in {@link ForecastCache}, for the list's own
+     *                      loads.
+     */
+    ForecastLoader(Context context, Uri uri, String[] projection, int firstPosition,
+                   ForecastItem[] previousItems, boolean cacheItems) {
+        super(context, uri, projection, null, null, null);
+        mFirstPosition = firstPosition;
+        mPreviousItems = previousItems;
+        mCacheItems = cacheItems;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        TraceCompat.beginSection("ForecastLoader.query");
+        Cursor cursor;
+        try {
+            cursor = super.loadInBackground();
+        } finally {
+            TraceCompat.endSection();
+        }
+        if (cursor == null) {
+            return null;
+        }
+        TraceCompat.beginSection("ForecastLoader.format");
+        try {
+            long start = SystemClock.elapsedRealtime();
+            SunshineSettings settings = SunshineSettings.get(getContext());
+            ForecastItem[] items = ForecastItem.fromCursor(getContext(), cursor, mFirstPosition);
+            ForecastDateIndex dateIndex = ForecastDateIndex.build(items);
+            long formatted = SystemClock.elapsedRealtime();
+
+            ForecastItem[] previousItems = mPreviousItems;
+            DiffUtil.DiffResult diff = null;
+            if (previousItems != null) {
+                diff = calculateDiff(previousItems, items);
+            }
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "Formatted " + items.length + " rows in " + (formatted - start) +
+                        "ms, compared them in " + (SystemClock.elapsedRealtime() - formatted) +
+                        "ms");
+            }
+            if (mCacheItems) {
+                // For the list to start from next time, and the detail screen, see ForecastCache
+                ForecastCache.put(settings, items, dateIndex);
+            }
+            return new ForecastCursor(cursor, mFirstPosition, items, dateIndex, previousItems,
+                    diff);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (cursor instanceof ForecastCursor && !isReset()) {
+            mPreviousItems = ((ForecastCursor) cursor).getItems();
+        }
+        super.deliverResult(cursor);
+    }
+
+    /**
+     * Works out the changes from one list of items to another, which is too slow for the main
+     * thread with a long list.
+     */
+    static DiffUtil.DiffResult calculateDiff(ForecastItem[] oldItems, ForecastItem[] newItems) {
+        // The rows are sorted by date and never move, so there's no need to look for moves
+        return DiffUtil.calculateDiff(new ItemDiffCallback(oldItems, newItems), false);
+    }
+
+    private static class ItemDiffCallback extends DiffUtil.Callback {
+        private final ForecastItem[] mOldItems;
+        private final ForecastItem[] mNewItems;
+
+        ItemDiffCallback(ForecastItem[] oldItems, ForecastItem[] newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            // A day's row keeps its date through syncs, while its _id changes whenever the sync
+            // replaces it
+            return mOldItems[oldItemPosition].date == mNewItems[newItemPosition].date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems[oldItemPosition].hasSameContents(mNewItems[newItemPosition]);
+        }
+    }
+
+    /**
+     * The loaded cursor, carrying the items built from its rows, the index of their dates and
+     * how they differ from the items before them.
+     */
+    static class ForecastCursor extends CursorWrapper {
+        private final int mFirstPosition;
+        private final ForecastItem[] mItems;
+        private final ForecastDateIndex mDateIndex;
+        private final ForecastItem[] mPreviousItems;
+        private final DiffUtil.DiffResult mDiff;
+
+        ForecastCursor(Cursor cursor, int firstPosition, ForecastItem[] items,
+                       ForecastDateIndex dateIndex, ForecastItem[] previousItems,
+                       DiffUtil.DiffResult diff) {
+            super(cursor);
+            mFirstPosition = firstPosition;
+            mItems = items;
+            mDateIndex = dateIndex;
+            mPreviousItems = previousItems;
+            mDiff = diff;
+        }
+
+        /**
+         * Returns the position in the list of the first row, see {@link ForecastLoader}.
+         */
+        int getFirstPosition() {
+            return mFirstPosition;
+        }
+
+        ForecastItem[] getItems() {
+            return mItems;
+        }
+
+        ForecastDateIndex getDateIndex() {
+            return mDateIndex;
+        }
+
+        /**
+         * Returns the changes from the given items to these, or null if they weren't worked out
+         * for those items.
+         */
+        DiffUtil.DiffResult getDiffFrom(ForecastItem[] items) {
+            return items != null && items == mPreviousItems ? mDiff : null;
+        }
+    }
+}
@@ -19,17 +19,16 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.support.v4.util.LongSparseArray;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
-import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  With an adapter
+ * that has stable ids it keeps the ids of the selected items, and follows them to their new
+ * positions as items are inserted, removed and moved.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,8 +43,41 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        // Only the positions of the checked items after the change need to move, and they're
+        // moved without asking the adapter for any ids
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            if (mAdapter != null && mAdapter.hasStableIds())
+                offsetCheckedPositions(positionStart, Integer.MAX_VALUE, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            if (mAdapter != null && mAdapter.hasStableIds()) {
+                uncheckPositions(positionStart, positionStart + itemCount);
+                offsetCheckedPositions(positionStart + itemCount, Integer.MAX_VALUE, -itemCount);
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            if (mAdapter != null && mAdapter.hasStableIds())
+                moveCheckedPositions(fromPosition, toPosition, itemCount);
+        }
     };
 
+    /**
+     * Implemented by adapters with stable ids that can find the position of an id without
+     * searching, which the checked positions are then restored from.
+     */
+    public interface PositionFinder {
+        /**
+         * Returns the position of the item with the given id, or RecyclerView.NO_POSITION.
+         */
+        int findPosition(long id);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -53,6 +85,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -63,22 +96,22 @@ public class ItemChoiceManager {
     private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
     /**
-     * Running state of which positions are currently checked
+     * Running state of which items are currently checked, by their IDs, or by their positions if
+     * the adapter doesn't have stable IDs.
+     * If there is a value for a given key, the checked state for that item is true
+     * and the value holds the last known position in the adapter for that item.
      */
-    SparseBooleanArray mCheckStates = new SparseBooleanArray();
+    LongIntMap mCheckedStates = new LongIntMap();
 
-    /**
-     * Running state of which IDs are currently checked.
-     * If there is a value for a given key, the checked state for that ID is true
-     * and the value holds the last known position in the adapter for that id.
-     */
-    LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
+    // The key an item is checked under in mCheckedStates
+    private long getCheckedKey(int position) {
+        return mAdapter.hasStableIds() ? mAdapter.getItemId(position) : position;
+    }
 
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
 
-        int checkedItemCount = mCheckStates.size();
         int position = vh.getAdapterPosition();
 
         if (position == RecyclerView.NO_POSITION) {
@@ -90,15 +123,16 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_NONE:
                 break;
             case AbsListView.CHOICE_MODE_SINGLE: {
-                boolean checked = mCheckStates.get(position, false);
+                long key = getCheckedKey(position);
+                boolean checked = mCheckedStates.containsKey(key);
                 if (!checked) {
-                    for (int i = 0; i < checkedItemCount; i++) {
-                        mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
+                    for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+                        if (mCheckedStates.isUsed(slot)) {
+                            mAdapter.notifyItemChanged(mCheckedStates.valueAt(slot));
+                        }
                     }
-                    mCheckStates.clear();
-                    mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
-                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                    mCheckedStates.clear();
+                    mCheckedStates.put(key, position);
                 }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
@@ -107,8 +141,12 @@ public class ItemChoiceManager {
                 break;
             }
             case AbsListView.CHOICE_MODE_MULTIPLE: {
-                boolean checked = mCheckStates.get(position, false);
-                mCheckStates.put(position, !checked);
+                long key = getCheckedKey(position);
+                if (mCheckedStates.containsKey(key)) {
+                    mCheckedStates.remove(key);
+                } else {
+                    mCheckedStates.put(key, position);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -146,44 +184,96 @@ public class ItemChoiceManager {
      * @see #setChoiceMode(int)
      */
     public boolean isItemChecked(int position) {
-        return mCheckStates.get(position);
+        return mCheckedStates.size() > 0 && mCheckedStates.containsKey(getCheckedKey(position));
     }
 
     void clearSelections() {
-        mCheckStates.clear();
-        mCheckedIdStates.clear();
+        mCheckedStates.clear();
+    }
+
+    /*
+        Adds delta to the positions of the checked items from start up to end.
+     */
+    private void offsetCheckedPositions(int start, int end, int delta) {
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (mCheckedStates.isUsed(slot)) {
+                int position = mCheckedStates.valueAt(slot);
+                if (position >= start && position < end) {
+                    mCheckedStates.setValueAt(slot, position + delta);
+                }
+            }
+        }
+    }
+
+    /*
+        Unchecks the items from start up to end.  This is a walk of its own, apart from moving
+        the positions after them, as removing can bring an entry already seen round again.
+     */
+    private void uncheckPositions(int start, int end) {
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (mCheckedStates.isUsed(slot)) {
+                int position = mCheckedStates.valueAt(slot);
+                if (position >= start && position < end) {
+                    mCheckedStates.removeAt(slot);
+                    slot--;
+                }
+            }
+        }
+    }
+
+    private void moveCheckedPositions(int from, int to, int itemCount) {
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (mCheckedStates.isUsed(slot)) {
+                int position = mCheckedStates.valueAt(slot);
+                if (position >= from && position < from + itemCount) {
+                    // One of the items moved
+                    position += to - from;
+                } else if (from < to && position >= from + itemCount &&
+                        position < to + itemCount) {
+                    // Moved up into the gap the items left
+                    position -= itemCount;
+                } else if (from > to && position >= to && position < from) {
+                    // Moved down to make room for the items
+                    position += itemCount;
+                }
+                mCheckedStates.setValueAt(slot, position);
+            }
+        }
     }
 
     void confirmCheckedPositionsById(int oldItemCount) {
-        // Clear out the positional check states, we'll rebuild it below from IDs.
-        mCheckStates.clear();
+        PositionFinder finder = mAdapter instanceof PositionFinder ? (PositionFinder) mAdapter : null;
 
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (!mCheckedStates.isUsed(slot)) {
+                continue;
+            }
+            final long id = mCheckedStates.keyAt(slot);
+            final int lastPos = mCheckedStates.valueAt(slot);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
+            int position = RecyclerView.NO_POSITION;
+            if (null != finder) {
+                position = finder.findPosition(id);
+            } else if (lastPos < oldItemCount && id == mAdapter.getItemId(lastPos)) {
+                position = lastPos;
+            } else {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
                 final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
                 for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
+                    if (id == mAdapter.getItemId(searchPos)) {
+                        position = searchPos;
                         break;
                     }
                 }
+            }
 
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+            if (position == RecyclerView.NO_POSITION) {
+                // Another entry may have moved into this slot, so look at it again
+                mCheckedStates.removeAt(slot);
+                slot--;
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckedStates.setValueAt(slot, position);
             }
         }
     }
@@ -202,25 +292,26 @@ public class ItemChoiceManager {
             Parcel inParcel = Parcel.obtain();
             inParcel.unmarshall(states, 0, states.length);
             inParcel.setDataPosition(0);
-            mCheckStates = inParcel.readSparseBooleanArray();
             final int numStates = inParcel.readInt();
-            mCheckedIdStates.clear();
+            mCheckedStates.clear();
+            mCheckedStates.ensureCapacity(numStates);
             for (int i=0; i<numStates; i++) {
                 final long key = inParcel.readLong();
                 final int value = inParcel.readInt();
-                mCheckedIdStates.put(key, value);
+                mCheckedStates.put(key, value);
             }
+            inParcel.recycle();
         }
     }
 
     public void onSaveInstanceState(Bundle outState) {
         Parcel outParcel = Parcel.obtain();
-        outParcel.writeSparseBooleanArray(mCheckStates);
-        final int numStates = mCheckedIdStates.size();
-        outParcel.writeInt(numStates);
-        for (int i=0; i<numStates; i++) {
-            outParcel.writeLong(mCheckedIdStates.keyAt(i));
-            outParcel.writeInt(mCheckedIdStates.valueAt(i));
+        outParcel.writeInt(mCheckedStates.size());
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (mCheckedStates.isUsed(slot)) {
+                outParcel.writeLong(mCheckedStates.keyAt(slot));
+                outParcel.writeInt(mCheckedStates.valueAt(slot));
+            }
         }
         byte[] states = outParcel.marshall();
         outState.putByteArray(SELECTED_ITEMS_KEY, states);
@@ -228,10 +319,14 @@ public class ItemChoiceManager {
     }
 
     public int getSelectedItemPosition() {
-        if ( mCheckStates.size() == 0 ) {
-            return RecyclerView.NO_POSITION;
-        } else {
-            return mCheckStates.keyAt(0);
+        // The first of the checked positions
+        int selected = RecyclerView.NO_POSITION;
+        for (int slot = 0; slot < mCheckedStates.capacity(); slot++) {
+            if (mCheckedStates.isUsed(slot) && (selected == RecyclerView.NO_POSITION ||
+                    mCheckedStates.valueAt(slot) < selected)) {
+                selected = mCheckedStates.valueAt(slot);
+            }
         }
+        return selected;
     }
 }
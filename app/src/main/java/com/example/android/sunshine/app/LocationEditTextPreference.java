@@ -19,19 +19,43 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * A location setting that suggests cities from the bundled gazetteer as the user types, so that
+ * picking one stores a location setting openweathermap is sure to recognise.  Anything else, like
+ * a postal code, can still be typed in as before.
+ */
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
-    public LocationEditTextPreference(Context context, AttributeSet attrs) {
+    private static final String[] SUGGESTION_COLUMNS = {
+            WeatherContract.GazetteerEntry._ID,
+            WeatherContract.GazetteerEntry.COLUMN_LOCATION_SETTING
+    };
+    // these indices must match the projection
+    private static final int COL_LOCATION_SETTING = 1;
+
+    // Shown in the dialog in place of the preference's own EditText
+    private final AutoCompleteTextView mLocationView;
+
+    public LocationEditTextPreference(final Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
                 attrs,
@@ -42,6 +66,48 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
+
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[]{WeatherContract.GazetteerEntry.COLUMN_LOCATION_SETTING},
+                new int[]{android.R.id.text1}, 0);
+        adapter.setStringConversionColumn(COL_LOCATION_SETTING);
+        // Runs on the filter's own thread, so it's fine to go to the provider from here
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null) {
+                    return null;
+                }
+                return context.getContentResolver().query(
+                        WeatherContract.GazetteerEntry.buildGazetteerSearchUri(constraint.toString()),
+                        SUGGESTION_COLUMNS, null, null, null);
+            }
+        });
+
+        // Takes the same attributes as the EditText it replaces
+        mLocationView = new AutoCompleteTextView(context, attrs);
+        mLocationView.setId(android.R.id.edit);
+        mLocationView.setThreshold(mMinLength);
+        mLocationView.setAdapter(adapter);
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        ViewParent oldParent = mLocationView.getParent();
+        if (oldParent != null) {
+            ((ViewGroup) oldParent).removeView(mLocationView);
+        }
+        mLocationView.setText(editText.getText());
+        mLocationView.setSelection(mLocationView.length());
+        super.onAddEditTextToDialogView(dialogView, mLocationView);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        // EditTextPreference saves the text of its own EditText, which never got shown
+        getEditText().setText(mLocationView.getText());
+        super.onDialogClosed(positiveResult);
     }
 
 
@@ -49,8 +115,7 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
-        et.addTextChangedListener(new TextWatcher() {
+        mLocationView.addTextChangedListener(new TextWatcher() {
 
 
             @Override
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * Maps longs to ints without boxing either, for {@link ItemChoiceManager} to keep the checked
+ * item ids and their positions in.
+ *
+ * The entries live in two parallel arrays, found by open addressing with linear probing, so
+ * looking up, adding and removing an entry allocate nothing unless the arrays have to grow.  The
+ * keys are item ids, so RecyclerView.NO_ID is never one of them and marks the free slots.
+ *
+ * The entries can be walked slot by slot, from 0 to {@link #capacity()}, skipping the free ones.
+ * Removing the entry at a slot can move a later entry into it, so a walk that removes should look
+ * at the same slot again.
+ */
+final class LongIntMap {
+
+    private static final long FREE = RecyclerView.NO_ID;
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    // Kept at no more than half the capacity, which keeps the runs of slots in use short
+    private int mMaxSize;
+    // The hash of a key is its top bits after multiplying, so this is 64 less log2(capacity)
+    private int mShift;
+
+    LongIntMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize How many entries to make room for before having to grow.
+     */
+    LongIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, FREE);
+        mValues = new int[capacity];
+        mMaxSize = capacity / 2;
+        mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /*
+        Fibonacci hashing, which spreads out ids that share their low bits, like dates at midnight.
+     */
+    private int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+    }
+
+    // The slot with the key, or the free slot where it would go
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key);
+        while (mKeys[slot] != FREE && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean containsKey(long key) {
+        return mKeys[find(key)] != FREE;
+    }
+
+    /**
+     * Returns the value of the key, or valueIfKeyNotFound if there's none.
+     */
+    int get(long key, int valueIfKeyNotFound) {
+        int slot = find(key);
+        return mKeys[slot] == FREE ? valueIfKeyNotFound : mValues[slot];
+    }
+
+    void put(long key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key can't be RecyclerView.NO_ID");
+        }
+        int slot = find(key);
+        if (mKeys[slot] == FREE) {
+            if (mSize >= mMaxSize) {
+                ensureCapacity(mSize + 1);
+                slot = find(key);
+            }
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mValues[slot] = value;
+    }
+
+    /**
+     * Makes room for the given number of entries, so that adding up to that many doesn't
+     * allocate.
+     */
+    void ensureCapacity(int size) {
+        if (size <= mMaxSize) {
+            return;
+        }
+        long[] keys = mKeys;
+        int[] values = mValues;
+        allocate(capacityFor(size));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    void remove(long key) {
+        int slot = find(key);
+        if (mKeys[slot] != FREE) {
+            removeAt(slot);
+        }
+    }
+
+    /**
+     * Removes the entry at the slot, moving back the entries after it that would no longer be
+     * found past the free slot.
+     */
+    void removeAt(int slot) {
+        int mask = mKeys.length - 1;
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (mKeys[next] != FREE) {
+            int home = hash(mKeys[next]);
+            // Move the entry back unless its home slot lies after the free one, up to it
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                mKeys[free] = mKeys[next];
+                mValues[free] = mValues[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[free] = FREE;
+        mSize--;
+    }
+
+    void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mKeys, FREE);
+            mSize = 0;
+        }
+    }
+
+    /**
+     * The number of slots, for walking the entries.
+     */
+    int capacity() {
+        return mKeys.length;
+    }
+
+    boolean isUsed(int slot) {
+        return mKeys[slot] != FREE;
+    }
+
+    long keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    int valueAt(int slot) {
+        return mValues[slot];
+    }
+
+    void setValueAt(int slot, int value) {
+        mValues[slot] = value;
+    }
+}
@@ -15,13 +15,19 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -29,6 +35,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
@@ -36,19 +43,83 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import java.lang.ref.WeakReference;
+
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
-    private static final String DETAILFRAGMENT_TAG = "DFTAG";
+    static final String DETAILFRAGMENT_TAG = "DFTAG";
     private final static int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
     public static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
 
     private boolean mTwoPane;
     private String mLocation;
 
+    // When onCreate started, and how long after that the first frame and the loaded forecast
+    // were drawn, or -1 until they are.  Logged with debug logging on for MainActivity.
+    private long mCreateTime;
+    private volatile long mTimeToFirstFrame = -1;
+    private volatile long mTimeToFullList = -1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+        mCreateTime = SystemClock.uptimeMillis();
+        TraceCompat.beginSection("MainActivity.onCreate");
+        try {
+            super.onCreate(savedInstanceState);
+            createViews(savedInstanceState);
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                mTimeToFirstFrame = SystemClock.uptimeMillis() - mCreateTime;
+                if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    Log.d(LOG_TAG, "First frame " + mTimeToFirstFrame + "ms after onCreate");
+                }
+                return true;
+            }
+        });
+
+        // None of this is needed to show the forecast, so it waits for the first frame.  It
+        // was already done when the activity was first created, so a rotation skips it.
+        if (savedInstanceState == null) {
+            StartupQueue.runAfterNextFrame(decorView, new DeferredStartup(this));
+        }
+    }
+
+    /*
+        The start up work that waits for the first frame, run on the StartupQueue's thread.  It
+        only keeps the application context, and a weak reference to the activity for the Play
+        Services dialog, so the queue doesn't hold on to an activity that's gone.
+     */
+    private static class DeferredStartup implements Runnable {
+        private final Context mContext;
+        private final WeakReference<MainActivity> mActivity;
+
+        DeferredStartup(MainActivity activity) {
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<MainActivity>(activity);
+        }
+
+        @Override
+        public void run() {
+            TraceCompat.beginSection("MainActivity.deferredStartup");
+            try {
+                SunshineSyncAdapter.initializeSyncAdapter(mContext);
+                registerWithGcm(mContext, mActivity);
+            } finally {
+                TraceCompat.endSection();
+            }
+        }
+    }
+
+    private void createViews(Bundle savedInstanceState) {
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
@@ -88,24 +159,42 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             forecastFragment.setInitialSelectedDate(
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
+    }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
-
+    /*
+        Called on the StartupQueue's thread.
+     */
+    private static void registerWithGcm(Context context,
+                                        final WeakReference<MainActivity> activityReference) {
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
         // not affect the behavior of the app, from a user perspective.
-        if (checkPlayServices()) {
+        final int resultCode =
+                GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(context);
+        if (resultCode == ConnectionResult.SUCCESS) {
             // Because this is the initial creation of the app, we'll want to be certain we have
             // a token. If we do not, then we will start the IntentService that will register this
             // application with GCM.
             SharedPreferences sharedPreferences =
-                    PreferenceManager.getDefaultSharedPreferences(this);
+                    PreferenceManager.getDefaultSharedPreferences(context);
             boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
             if (!sentToken) {
-                Intent intent = new Intent(this, RegistrationIntentService.class);
-                startService(intent);
+                Intent intent = new Intent(context, RegistrationIntentService.class);
+                context.startService(intent);
             }
+        } else {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    MainActivity activity = activityReference.get();
+                    if (null != activity && !activity.isFinishing() &&
+                            (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1 ||
+                                    !activity.isDestroyed())) {
+                        activity.resolvePlayServices(resultCode);
+                    }
+                }
+            });
         }
     }
 
@@ -158,6 +247,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             // fragment transaction.
             Bundle args = new Bundle();
             args.putParcelable(DetailFragment.DETAIL_URI, contentUri);
+            // So the fragment can tell how long the forecast took to show
+            args.putLong(DetailFragment.DETAIL_TAP_TIME, SystemClock.uptimeMillis());
 
             DetailFragment fragment = new DetailFragment();
             fragment.setArguments(args);
@@ -176,24 +267,42 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         }
     }
 
+    @Override
+    public void onForecastShown() {
+        if (mTimeToFullList != -1) {
+            return;
+        }
+        mTimeToFullList = SystemClock.uptimeMillis() - mCreateTime;
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Forecast shown " + mTimeToFullList + "ms after onCreate");
+        }
+        // Lets the platform report the time to the full display too
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+        }
+    }
+
+    long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
+    long getTimeToFullList() {
+        return mTimeToFullList;
+    }
+
     /**
-     * Check the device to make sure it has the Google Play Services APK. If
-     * it doesn't, display a dialog that allows users to download the APK from
-     * the Google Play Store or enable it in the device's system settings.
+     * The device doesn't have the Google Play Services APK it needs. Display a dialog that
+     * allows users to download the APK from the Google Play Store or enable it in the device's
+     * system settings, if that's possible.
      */
-    private boolean checkPlayServices() {
+    private void resolvePlayServices(int resultCode) {
         GoogleApiAvailability apiAvailability = GoogleApiAvailability.getInstance();
-        int resultCode = apiAvailability.isGooglePlayServicesAvailable(this);
-        if (resultCode != ConnectionResult.SUCCESS) {
-            if (apiAvailability.isUserResolvableError(resultCode)) {
-                apiAvailability.getErrorDialog(this, resultCode,
-                        PLAY_SERVICES_RESOLUTION_REQUEST).show();
-            } else {
-                Log.i(LOG_TAG, "This device is not supported.");
-                finish();
-            }
-            return false;
+        if (apiAvailability.isUserResolvableError(resultCode)) {
+            apiAvailability.getErrorDialog(this, resultCode,
+                    PLAY_SERVICES_RESOLUTION_REQUEST).show();
+        } else {
+            Log.i(LOG_TAG, "This device is not supported.");
+            finish();
         }
-        return true;
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Process;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the start up work that the first frame doesn't need, after that frame is drawn.
+ *
+ * The work runs in order on a single thread at background priority, so it doesn't compete with
+ * the loaders for the list.  The thread goes away once the queue has been empty for a while.
+ */
+final class StartupQueue {
+
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SunshineStartup");
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private StartupQueue() {
+    }
+
+    /**
+     * Queues the task once the view has drawn its next frame.
+     */
+    static void runAfterNextFrame(final View view, final Runnable task) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted from here, it runs once the frame about to be drawn is done
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        sExecutor.execute(task);
+                    }
+                });
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.GlideModule;
+import com.example.android.sunshine.shared.WeatherCondition;
+
+import java.io.File;
+
+/**
+ * Sizes Glide's caches for the weather art, which is all Sunshine loads with it.  Glide finds
+ * this through the meta-data in the manifest.
+ *
+ * By default Glide keeps a couple of screens' worth of bitmaps in memory, and as many again in
+ * its bitmap pool, for apps that scroll through many different images.  Sunshine only ever shows
+ * one image per weather condition, at the two sizes {@link WeatherArt} loads them at, so the
+ * memory cache only needs room for those and the pool only has to cover a few rebinds.
+ */
+public class SunshineGlideModule implements GlideModule {
+    private static final String LOG_TAG = SunshineGlideModule.class.getSimpleName();
+
+    // The art is kept apart from anything else in the cache directory, so clearing it doesn't
+    // clear the rest, and the rest can't push the art out
+    private static final String DISK_CACHE_DIR = "weather_art";
+    // Room for the original images of a couple of art packs, and the art decoded from them
+    private static final int DISK_CACHE_SIZE = 10 * 1024 * 1024;
+
+    // Bytes per pixel of an ARGB_8888 bitmap, which the art decodes to as it has transparency
+    private static final int BYTES_PER_PIXEL = 4;
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator(context);
+        int iconSize = WeatherArt.getIconSize(context);
+        int artSize = WeatherArt.getArtSize(context);
+        // Every condition at both sizes, decoded once for the views and once as Bitmaps for the
+        // widget and the notification
+        int artSetSize = WeatherCondition.values().length * 2 * BYTES_PER_PIXEL *
+                (iconSize * iconSize + artSize * artSize);
+        int memoryCacheSize = Math.min(calculator.getMemoryCacheSize(), artSetSize);
+        int bitmapPoolSize = Math.min(calculator.getBitmapPoolSize(), artSetSize / 2);
+
+        builder.setMemoryCache(new LruResourceCache(memoryCacheSize));
+        builder.setBitmapPool(new LruBitmapPool(bitmapPoolSize));
+        builder.setDiskCache(DiskLruCacheWrapper.get(
+                new File(context.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_SIZE));
+
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Memory cache " + memoryCacheSize / 1024 + "KB, bitmap pool " +
+                    bitmapPoolSize / 1024 + "KB, where Glide would use " +
+                    calculator.getMemoryCacheSize() / 1024 + "KB and " +
+                    calculator.getBitmapPoolSize() / 1024 + "KB");
+        }
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        // The default loaders are all the art needs
+    }
+}
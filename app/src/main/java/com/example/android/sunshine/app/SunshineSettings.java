@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The user's settings as of the last time one of them changed.
+ *
+ * Reading a setting from the default SharedPreferences looks up its key and default in the
+ * resources every time, and the units and art pack are read for every row of the list and the
+ * widget.  Instead the settings are read once into an immutable snapshot, which a preference
+ * listener replaces whenever one of them changes, so getting the current settings is a single
+ * volatile read.
+ */
+public final class SunshineSettings {
+
+    private static volatile SunshineSettings sSettings;
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mLocation;
+    private final long mLocationId;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mUsingLocalGraphics;
+    private final boolean mNotificationsEnabled;
+
+    private SunshineSettings(Context context, SharedPreferences prefs) {
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        // The sync adapter records which location setting the id was synced for
+        String syncedLocation = prefs.getString(
+                context.getString(R.string.pref_location_id_setting_key), null);
+        mLocationId = mLocation.equals(syncedLocation)
+                ? prefs.getLong(context.getString(R.string.pref_location_id_key), -1) : -1;
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        mUsingLocalGraphics = mArtPack.equals(sunshineArtPack);
+        mNotificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+    }
+
+    /**
+     * Returns the current settings.  Read them once into a local for work that uses them more
+     * than once, so that it all sees the same settings.
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings settings = sSettings;
+        if (settings == null) {
+            settings = init(context.getApplicationContext());
+        }
+        return settings;
+    }
+
+    private static synchronized SunshineSettings init(final Context context) {
+        if (sSettings == null) {
+            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            final String[] keys = {
+                    context.getString(R.string.pref_location_key),
+                    context.getString(R.string.pref_location_id_key),
+                    context.getString(R.string.pref_location_id_setting_key),
+                    context.getString(R.string.pref_units_key),
+                    context.getString(R.string.pref_art_pack_key),
+                    context.getString(R.string.pref_enable_notifications_key)
+            };
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    // A null key means the preferences were cleared
+                    for (String settingKey : keys) {
+                        if (key == null || key.equals(settingKey)) {
+                            reload(context, prefs);
+                            return;
+                        }
+                    }
+                }
+            };
+            // Listen before reading, so that a change in between isn't missed
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sSettings = new SunshineSettings(context, prefs);
+        }
+        return sSettings;
+    }
+
+    private static synchronized void reload(Context context, SharedPreferences prefs) {
+        sSettings = new SunshineSettings(context, prefs);
+    }
+
+    /**
+     * The location the user asked for, as they typed it in.
+     */
+    public String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * The location table row id of the location, or -1 if it hasn't been synced since the
+     * location last changed.
+     */
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * The format of the art URLs, with a %s for the name of the art.
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    /**
+     * True if the art pack is the one bundled with the app, so the art doesn't have to be
+     * downloaded.
+     */
+    public boolean usingLocalGraphics() {
+        return mUsingLocalGraphics;
+    }
+
+    public boolean areNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+}
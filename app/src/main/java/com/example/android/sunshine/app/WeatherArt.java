@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the weather art of an art pack through Glide, the same way everywhere it's shown.
+ *
+ * Glide caches a decoded image for the size it was decoded at, so the art is only ever decoded
+ * at one of two sizes: {@link #getIconSize(Context)}, the icon on the forecast rows and the
+ * widget, and {@link #getArtSize(Context)}, the art on today's row, the detail screen and the
+ * notification.  A load at either size can then be answered by any other at the same size.  The
+ * original images are kept in the disk cache too, so a size or a kind of load that hasn't been
+ * seen before only has to decode them again, rather than download them.
+ *
+ * Every load is counted, and with debug logging on for WeatherArt the hit rate of the memory
+ * cache and the number of decodes are logged as they go.
+ */
+public final class WeatherArt {
+    private static final String LOG_TAG = WeatherArt.class.getSimpleName();
+
+    // How many loads to count between logging the totals
+    private static final int LOG_INTERVAL = 20;
+
+    private static final AtomicInteger sMemoryHits = new AtomicInteger();
+    private static final AtomicInteger sDecodes = new AtomicInteger();
+    private static final AtomicInteger sFailures = new AtomicInteger();
+
+    private static final LoadCounter<GlideDrawable> sDrawableCounter =
+            new LoadCounter<GlideDrawable>();
+    private static final LoadCounter<Bitmap> sBitmapCounter = new LoadCounter<Bitmap>();
+
+    private WeatherArt() {
+    }
+
+    /**
+     * Returns the size in pixels the art is loaded at for the forecast rows' icons.
+     */
+    public static int getIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    /**
+     * Returns the size in pixels the art is loaded at for today's forecast.
+     */
+    public static int getArtSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+    }
+
+    /**
+     * Starts a load of the art at the url.  The size is left for the caller to set, to one of
+     * the sizes above, unless the target has one already.
+     */
+    public static DrawableRequestBuilder<String> load(RequestManager requestManager,
+                                                      String artUrl) {
+        return requestManager
+                .load(artUrl)
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .listener(sDrawableCounter);
+    }
+
+    /**
+     * Starts a load of the art at the url as a Bitmap, for the views that can't take a Drawable.
+     */
+    public static BitmapRequestBuilder<String, Bitmap> loadBitmap(Context context,
+                                                                  String artUrl) {
+        return Glide.with(context)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .listener(sBitmapCounter);
+    }
+
+    static int getMemoryHits() {
+        return sMemoryHits.get();
+    }
+
+    static int getDecodes() {
+        return sDecodes.get();
+    }
+
+    static int getFailures() {
+        return sFailures.get();
+    }
+
+    /*
+        Counts the loads which were answered from the memory cache, and the ones that had to be
+        decoded from the disk cache or the network.
+     */
+    static class LoadCounter<R> implements RequestListener<String, R> {
+        @Override
+        public boolean onException(Exception e, String model, Target<R> target,
+                                   boolean isFirstResource) {
+            sFailures.incrementAndGet();
+            logCounts();
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(R resource, String model, Target<R> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            (isFromMemoryCache ? sMemoryHits : sDecodes).incrementAndGet();
+            logCounts();
+            return false;
+        }
+
+        private void logCounts() {
+            int hits = sMemoryHits.get();
+            int decodes = sDecodes.get();
+            int failures = sFailures.get();
+            int loads = hits + decodes + failures;
+            if (loads % LOG_INTERVAL == 0 && Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, loads + " loads: " + hits * 100 / loads + "% from memory, " +
+                        decodes + " decoded, " + failures + " failed");
+            }
+        }
+    }
+}
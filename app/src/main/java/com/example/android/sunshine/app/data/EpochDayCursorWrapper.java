@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Hands the date columns of a query, which the database keeps as days since the epoch, back as
+ * the normalized milliseconds the rest of the app works with.  Every other column is passed
+ * through untouched.
+ */
+class EpochDayCursorWrapper extends CursorWrapper {
+
+    private final int mDateColumn;
+    private final int mMonthColumn;
+
+    // A forecast has a handful of distinct dates that get read over and over while binding, so
+    // remember the last conversion.
+    private long mLastEpochDay = Long.MIN_VALUE;
+    private long mLastDate = Long.MIN_VALUE;
+
+    private EpochDayCursorWrapper(Cursor cursor, int dateColumn, int monthColumn) {
+        super(cursor);
+        mDateColumn = dateColumn;
+        mMonthColumn = monthColumn;
+    }
+
+    /**
+     * Wraps the cursor if it has a date column, otherwise returns it as it is.
+     */
+    static Cursor wrap(Cursor cursor) {
+        int dateColumn = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int monthColumn = cursor.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_MONTH);
+        if (dateColumn == -1 && monthColumn == -1) {
+            return cursor;
+        }
+        return new EpochDayCursorWrapper(cursor, dateColumn, monthColumn);
+    }
+
+    private boolean isDateColumn(int columnIndex) {
+        return columnIndex == mDateColumn || columnIndex == mMonthColumn;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        long value = super.getLong(columnIndex);
+        if (!isDateColumn(columnIndex) || super.isNull(columnIndex)) {
+            return value;
+        }
+        if (value != mLastEpochDay) {
+            mLastEpochDay = value;
+            mLastDate = WeatherContract.fromEpochDay(value);
+        }
+        return mLastDate;
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return isDateColumn(columnIndex) ? (int) getLong(columnIndex) : super.getInt(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return isDateColumn(columnIndex) ? getLong(columnIndex) : super.getDouble(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return isDateColumn(columnIndex) ? getLong(columnIndex) : super.getFloat(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        if (!isDateColumn(columnIndex) || super.isNull(columnIndex)) {
+            return super.getString(columnIndex);
+        }
+        return Long.toString(getLong(columnIndex));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.GazetteerEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads the gazetteer bundled in res/raw into its own database the first time it's searched.
+ *
+ * Unlike weather.db this isn't a cache of online data, so it gets its own file and version.  The
+ * cities are kept in a plain table, in the order of the bundled file, and a full text index over
+ * their names answers the word prefix searches.
+ */
+class GazetteerDbHelper extends SQLiteOpenHelper {
+
+    // Increment whenever res/raw/gazetteer.gz changes, so that it gets loaded again
+    private static final int DATABASE_VERSION = 1;
+
+    static final String DATABASE_NAME = "gazetteer.db";
+
+    // The full text index, whose docids are the _ids of the gazetteer table
+    static final String FTS_TABLE_NAME = GazetteerEntry.TABLE_NAME + "_fts";
+    static final String FTS_COLUMN_NAME = "name";
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private final Context mContext;
+
+    GazetteerDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // The bundled file lists the most prominent cities first, so the _id doubles as the order
+        // suggestions are ranked in
+        db.execSQL("CREATE TABLE " + GazetteerEntry.TABLE_NAME + " (" +
+                GazetteerEntry._ID + " INTEGER PRIMARY KEY, " +
+                GazetteerEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                GazetteerEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+                GazetteerEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                GazetteerEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                GazetteerEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL);");
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                FTS_COLUMN_NAME + ");");
+
+        try {
+            load(db);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't load the bundled gazetteer", e);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Nothing in here comes from the user, so just load the new gazetteer
+        db.execSQL("DROP TABLE IF EXISTS " + GazetteerEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+        onCreate(db);
+    }
+
+    /*
+        Each line of the bundled file is a city's name, country code, latitude and longitude,
+        separated by tabs.
+     */
+    private void load(SQLiteDatabase db) throws IOException {
+        SQLiteStatement insertCity = db.compileStatement("INSERT INTO " +
+                GazetteerEntry.TABLE_NAME + " (" +
+                GazetteerEntry._ID + ", " +
+                GazetteerEntry.COLUMN_CITY_NAME + ", " +
+                GazetteerEntry.COLUMN_COUNTRY + ", " +
+                GazetteerEntry.COLUMN_COORD_LAT + ", " +
+                GazetteerEntry.COLUMN_COORD_LONG + ", " +
+                GazetteerEntry.COLUMN_LOCATION_SETTING + ") VALUES (?, ?, ?, ?, ?, ?)");
+        SQLiteStatement insertName = db.compileStatement("INSERT INTO " + FTS_TABLE_NAME +
+                " (docid, " + FTS_COLUMN_NAME + ") VALUES (?, ?)");
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                mContext.getResources().openRawResource(R.raw.gazetteer)), "UTF-8"));
+        try {
+            long id = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 4) {
+                    continue;
+                }
+                String cityName = fields[0];
+                String country = fields[1];
+                id++;
+
+                insertCity.bindLong(1, id);
+                insertCity.bindString(2, cityName);
+                insertCity.bindString(3, country);
+                insertCity.bindDouble(4, Double.parseDouble(fields[2]));
+                insertCity.bindDouble(5, Double.parseDouble(fields[3]));
+                insertCity.bindString(6, cityName + "," + country);
+                insertCity.executeInsert();
+
+                // The country code is indexed too, so that "paris fr" and "paris us" tell the
+                // two apart
+                insertName.bindLong(1, id);
+                insertName.bindString(2, toSearchText(cityName + " " + country));
+                insertName.executeInsert();
+            }
+        } finally {
+            reader.close();
+            insertCity.close();
+            insertName.close();
+        }
+    }
+
+    /**
+     * Turns what the user typed into a full text query matching the cities with a word starting
+     * with each of its words, or returns null if it has no words at all.
+     */
+    static String buildMatchQuery(String text) {
+        String searchText = toSearchText(text).trim();
+        if (searchText.isEmpty()) {
+            return null;
+        }
+        // Anything that isn't a letter or digit is already gone, so the words can't carry any
+        // full text query syntax of their own
+        return searchText.replace(" ", "* ") + "*";
+    }
+
+    /*
+        The simple tokenizer only folds ASCII, so accents are stripped and everything lower cased
+        up front, on both the names and the queries.  "Zürich", "zurich" and "ZURICH" all end up as
+        "zurich".
+     */
+    private static String toSearchText(String text) {
+        String folded = COMBINING_MARKS.matcher(
+                Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return NON_WORD.matcher(folded.toLowerCase(Locale.US)).replaceAll(" ");
+    }
+}
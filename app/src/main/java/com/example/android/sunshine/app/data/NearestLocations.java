@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Answers the spatial routes of the location table from its (coord_lat, coord_long) index.
+ *
+ * A bounding box is a single range over the latitude part of the index, with the longitude
+ * checked on the index entries themselves.  The nearest locations are found by searching ever
+ * larger boxes around the point until one holds enough locations within the circle it encloses,
+ * so that a point with a stored location close by never reads more than a handful of rows.
+ */
+class NearestLocations {
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    // Half the circumference, the furthest two points can be apart
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    // About the size of a city, and grown fourfold on every search that comes up short
+    private static final double INITIAL_RADIUS_KM = 50.0;
+    private static final double RADIUS_GROWTH = 4.0;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int COL_COORD_LAT = 3;
+    private static final int COL_COORD_LONG = 4;
+
+    // The columns of a nearest query without a projection, the location and its distance
+    static final String[] NEAREST_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+
+    //location.coord_lat BETWEEN ? AND ? AND location.coord_long BETWEEN ? AND ?
+    static final String sLocationInBoxSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND " +
+                    LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?";
+
+    //location.coord_lat BETWEEN ? AND ? AND (location.coord_long >= ? OR location.coord_long <= ?)
+    // For boxes that cross the 180th meridian, whose west edge is east of their east edge
+    static final String sLocationInBoxAcrossDatelineSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND (" +
+                    LocationEntry.COLUMN_COORD_LONG + " >= ? OR " +
+                    LocationEntry.COLUMN_COORD_LONG + " <= ?)";
+
+    /**
+     * Queries the locations inside the box.  The box crosses the 180th meridian when west is
+     * greater than east.
+     */
+    static Cursor queryBox(SQLiteDatabase db, String[] projection, double south, double west,
+                           double north, double east, String sortOrder) {
+        return db.query(LocationEntry.TABLE_NAME,
+                projection,
+                west <= east ? sLocationInBoxSelection : sLocationInBoxAcrossDatelineSelection,
+                new String[]{Double.toString(south), Double.toString(north),
+                        Double.toString(west), Double.toString(east)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * Returns up to count locations, nearest to the point first, with the columns of the
+     * projection.  Any of the location columns can be asked for, along with COLUMN_DISTANCE.
+     */
+    static Cursor queryNearest(SQLiteDatabase db, String[] projection, double lat, double lon,
+                               int count) {
+        if (projection == null) {
+            projection = NEAREST_COLUMNS;
+        }
+        MatrixCursor nearest = new MatrixCursor(projection);
+        if (count <= 0) {
+            return nearest;
+        }
+
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        double radius = INITIAL_RADIUS_KM;
+        while (true) {
+            candidates.clear();
+            readCandidates(db, lat, lon, Math.min(radius, MAX_DISTANCE_KM), candidates);
+            // Anything further than the radius may have a nearer location just outside the box,
+            // so only a full circle's worth is good enough
+            if (candidates.size() >= count || radius >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radius *= RADIUS_GROWTH;
+        }
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate lhs, Candidate rhs) {
+                return Double.compare(lhs.distance, rhs.distance);
+            }
+        });
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = getColumn(projection[i]);
+        }
+        for (int i = 0; i < candidates.size() && i < count; i++) {
+            Candidate candidate = candidates.get(i);
+            Object[] row = new Object[projection.length];
+            for (int j = 0; j < columns.length; j++) {
+                row[j] = columns[j] == LOCATION_COLUMNS.length ?
+                        candidate.distance : candidate.values[columns[j]];
+            }
+            nearest.addRow(row);
+        }
+        return nearest;
+    }
+
+    // Reads the locations within radius of the point, which must not be more than
+    // MAX_DISTANCE_KM
+    private static void readCandidates(SQLiteDatabase db, double lat, double lon, double radius,
+                                       List<Candidate> candidates) {
+        double angularRadius = radius / EARTH_RADIUS_KM;
+        double south = lat - Math.toDegrees(angularRadius);
+        double north = lat + Math.toDegrees(angularRadius);
+        double west = -180;
+        double east = 180;
+        // Unless the circle takes in a pole, its widest point is narrower than the box around it
+        if (south > -90 && north < 90) {
+            double lonDelta = Math.toDegrees(
+                    Math.asin(Math.sin(angularRadius) / Math.cos(Math.toRadians(lat))));
+            west = lon - lonDelta;
+            east = lon + lonDelta;
+            if (west < -180) {
+                west += 360;
+            }
+            if (east > 180) {
+                east -= 360;
+            }
+        }
+
+        Cursor cursor = queryBox(db, LOCATION_COLUMNS, south, west, north, east, null);
+        try {
+            while (cursor.moveToNext()) {
+                double distance = getDistanceKm(lat, lon, cursor.getDouble(COL_COORD_LAT),
+                        cursor.getDouble(COL_COORD_LONG));
+                if (distance <= radius) {
+                    Object[] values = new Object[LOCATION_COLUMNS.length];
+                    values[0] = cursor.getLong(0);
+                    values[1] = cursor.getString(1);
+                    values[2] = cursor.getString(2);
+                    values[COL_COORD_LAT] = cursor.getDouble(COL_COORD_LAT);
+                    values[COL_COORD_LONG] = cursor.getDouble(COL_COORD_LONG);
+                    candidates.add(new Candidate(values, distance));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The index into LOCATION_COLUMNS, or its length for the distance
+    private static int getColumn(String name) {
+        for (int i = 0; i < LOCATION_COLUMNS.length; i++) {
+            if (LOCATION_COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        if (LocationEntry.COLUMN_DISTANCE.equals(name)) {
+            return LOCATION_COLUMNS.length;
+        }
+        throw new IllegalArgumentException("Unknown column: " + name);
+    }
+
+    /**
+     * Returns the great circle distance between two points in kilometres, using the haversine
+     * formula.
+     */
+    static double getDistanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static final class Candidate {
+        final Object[] values;
+        final double distance;
+
+        Candidate(Object[] values, double distance) {
+            this.values = values;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.text.format.DateFormat;
+import android.util.SparseArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms, row counts, result sizes and callers of every provider operation, per
+ * route, along with a bounded log of the slowest calls.
+ *
+ * Recording a call is a few counter updates under a lock, cheap enough to leave on all the time.
+ * The numbers are read back with dumpsys, or as JSON through METHOD_GET_PROVIDER_METRICS, for
+ * analysis off the device.
+ */
+class ProviderMetrics {
+
+    static final String OP_QUERY = "query";
+    static final String OP_INSERT = "insert";
+    static final String OP_BULK_INSERT = "bulkInsert";
+    static final String OP_UPDATE = "update";
+    static final String OP_DELETE = "delete";
+
+    // Upper bounds of the latency buckets, in milliseconds.  The last bucket takes everything
+    // slower than the last bound.
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    // Calls at least this slow go to the slow call log, which keeps the most recent ones.  A
+    // frame is 16ms, so this is three of them on the main thread.
+    static final long SLOW_CALL_MILLIS = 50;
+    private static final int SLOW_CALL_LOG_SIZE = 64;
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final PackageManager mPackageManager;
+    // Package names by uid, since looking them up goes through the package manager
+    private final SparseArray<String> mCallingPackages = new SparseArray<String>();
+
+    // Keyed by operation and route, so that the dump comes out sorted
+    private final Map<String, RouteStats> mRoutes = new TreeMap<String, RouteStats>();
+    private final ArrayDeque<SlowCall> mSlowCalls = new ArrayDeque<SlowCall>(SLOW_CALL_LOG_SIZE);
+
+    ProviderMetrics(PackageManager packageManager) {
+        mPackageManager = packageManager;
+    }
+
+    /**
+     * Records a call that started at startNanos, as given by System.nanoTime().  Has to be called
+     * on the thread that handled the call, so that the calling uid is still the caller's.
+     *
+     * @param windowBytes The estimated size of the cursor window a query filled, 0 otherwise.
+     */
+    synchronized void record(String operation, String route, Uri uri, int callingUid,
+                             long startNanos, int rows, int windowBytes) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        String caller = getCallingPackage(callingUid);
+
+        String key = operation + " " + route;
+        RouteStats stats = mRoutes.get(key);
+        if (stats == null) {
+            stats = new RouteStats(operation, route);
+            mRoutes.put(key, stats);
+        }
+        stats.add(elapsedNanos, rows, windowBytes, caller);
+
+        if (elapsedNanos >= SLOW_CALL_MILLIS * NANOS_PER_MILLI) {
+            if (mSlowCalls.size() == SLOW_CALL_LOG_SIZE) {
+                mSlowCalls.removeFirst();
+            }
+            mSlowCalls.addLast(new SlowCall(System.currentTimeMillis(), operation, route, uri,
+                    elapsedNanos, rows, windowBytes, caller));
+        }
+    }
+
+    private String getCallingPackage(int uid) {
+        String name = mCallingPackages.get(uid);
+        if (name == null) {
+            name = mPackageManager.getNameForUid(uid);
+            if (name == null) {
+                name = Integer.toString(uid);
+            }
+            mCallingPackages.put(uid, name);
+        }
+        return name;
+    }
+
+    synchronized void clear() {
+        mRoutes.clear();
+        mSlowCalls.clear();
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Provider calls, latency histogram buckets in ms: <" +
+                joinBounds(", <") + ", more");
+        for (RouteStats stats : mRoutes.values()) {
+            writer.print("  ");
+            writer.print(stats.operation);
+            writer.print(" ");
+            writer.print(stats.route);
+            writer.print(": count=" + stats.count);
+            writer.print(" avg=" + formatMillis(stats.totalNanos / Math.max(stats.count, 1)) + "ms");
+            writer.print(" max=" + formatMillis(stats.maxNanos) + "ms");
+            writer.print(" rows=" + stats.rows);
+            if (stats.windowBytes != 0) {
+                writer.print(" window_bytes=" + stats.windowBytes);
+            }
+            writer.println();
+            writer.print("    histogram=");
+            for (int i = 0; i < stats.histogram.length; i++) {
+                writer.print(i == 0 ? "[" : ", ");
+                writer.print(stats.histogram[i]);
+            }
+            writer.println("]");
+            writer.println("    callers=" + stats.callers);
+        }
+
+        writer.println("Slow calls, at least " + SLOW_CALL_MILLIS + "ms, oldest first:");
+        for (SlowCall call : mSlowCalls) {
+            writer.print("  ");
+            writer.print(DateFormat.format("MM-dd kk:mm:ss", call.time));
+            writer.print(" " + call.operation + " " + call.uri);
+            writer.print(" " + formatMillis(call.elapsedNanos) + "ms");
+            writer.print(" rows=" + call.rows);
+            if (call.windowBytes != 0) {
+                writer.print(" window_bytes=" + call.windowBytes);
+            }
+            writer.println(" caller=" + call.caller);
+        }
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONArray bounds = new JSONArray();
+        for (long bound : BUCKET_BOUNDS_MILLIS) {
+            bounds.put(bound);
+        }
+        json.put("bucket_bounds_millis", bounds);
+        json.put("slow_call_millis", SLOW_CALL_MILLIS);
+
+        JSONArray routes = new JSONArray();
+        for (RouteStats stats : mRoutes.values()) {
+            JSONObject route = new JSONObject();
+            route.put("operation", stats.operation);
+            route.put("route", stats.route);
+            route.put("count", stats.count);
+            route.put("total_millis", toMillis(stats.totalNanos));
+            route.put("max_millis", toMillis(stats.maxNanos));
+            route.put("rows", stats.rows);
+            route.put("window_bytes", stats.windowBytes);
+            JSONArray histogram = new JSONArray();
+            for (int count : stats.histogram) {
+                histogram.put(count);
+            }
+            route.put("histogram", histogram);
+            route.put("callers", new JSONObject(stats.callers));
+            routes.put(route);
+        }
+        json.put("routes", routes);
+
+        JSONArray slowCalls = new JSONArray();
+        for (SlowCall call : mSlowCalls) {
+            JSONObject slowCall = new JSONObject();
+            slowCall.put("time", call.time);
+            slowCall.put("operation", call.operation);
+            slowCall.put("route", call.route);
+            slowCall.put("uri", call.uri.toString());
+            slowCall.put("millis", toMillis(call.elapsedNanos));
+            slowCall.put("rows", call.rows);
+            slowCall.put("window_bytes", call.windowBytes);
+            slowCall.put("caller", call.caller);
+            slowCalls.put(slowCall);
+        }
+        json.put("slow_calls", slowCalls);
+        return json;
+    }
+
+    private static String joinBounds(String separator) {
+        StringBuilder bounds = new StringBuilder();
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (i > 0) {
+                bounds.append(separator);
+            }
+            bounds.append(BUCKET_BOUNDS_MILLIS[i]);
+        }
+        return bounds.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.2f", toMillis(nanos));
+    }
+
+    private static final class RouteStats {
+        final String operation;
+        final String route;
+        final int[] histogram = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+        final Map<String, Integer> callers = new HashMap<String, Integer>();
+        int count;
+        long totalNanos;
+        long maxNanos;
+        long rows;
+        long windowBytes;
+
+        RouteStats(String operation, String route) {
+            this.operation = operation;
+            this.route = route;
+        }
+
+        void add(long elapsedNanos, int rows, int windowBytes, String caller) {
+            count++;
+            totalNanos += elapsedNanos;
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+            this.rows += rows;
+            this.windowBytes += windowBytes;
+
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length &&
+                    elapsedNanos >= BUCKET_BOUNDS_MILLIS[bucket] * NANOS_PER_MILLI) {
+                bucket++;
+            }
+            histogram[bucket]++;
+
+            Integer calls = callers.get(caller);
+            callers.put(caller, calls == null ? 1 : calls + 1);
+        }
+    }
+
+    private static final class SlowCall {
+        final long time;
+        final String operation;
+        final String route;
+        final Uri uri;
+        final long elapsedNanos;
+        final int rows;
+        final int windowBytes;
+        final String caller;
+
+        SlowCall(long time, String operation, String route, Uri uri, long elapsedNanos, int rows,
+                 int windowBytes, String caller) {
+            this.time = time;
+            this.operation = operation;
+            this.route = route;
+            this.uri = uri;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.windowBytes = windowBytes;
+            this.caller = caller;
+        }
+    }
+}
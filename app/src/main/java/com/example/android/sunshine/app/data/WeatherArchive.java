@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rolls expired daily weather rows into the monthly {@link HistoryEntry} table.
+ *
+ * Each run only reads the rows that expired since the last one, so the work done is proportional
+ * to a few days of forecasts no matter how much history has built up.  The new days are merged
+ * into any existing row for the same month, and the oldest months of a location are dropped once
+ * it has more than the configured number.
+ */
+class WeatherArchive {
+
+    private static final String[] EXPIRED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_WEATHER_ID = 7;
+
+    //weather.location_id IN (SELECT _id FROM location) AND weather.date < ?
+    // Going location by location lets both the query and the delete seek into the
+    // (location_id, date) index rather than scan the whole table.  Deleting a location deletes
+    // its weather, so this still covers every row.
+    static final String sExpiredSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM " +
+                    LocationEntry.TABLE_NAME + ") AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //weather_history.location_id = ? AND weather_history.month = ?
+    private static final String sLocationAndMonthSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_MONTH + " = ?";
+
+    // Deletes the months of a location that are older than its N newest ones.  Both are answered
+    // from the (location_id, month) index.
+    static final String sTrimLocationSql =
+            "DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+                    HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    HistoryEntry.COLUMN_MONTH + " <= (SELECT " + HistoryEntry.COLUMN_MONTH +
+                    " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + HistoryEntry.COLUMN_LOC_KEY + " = ?" +
+                    " ORDER BY " + HistoryEntry.COLUMN_MONTH + " DESC LIMIT 1 OFFSET ?)";
+
+    // Weather ids of rain, snow, drizzle and thunderstorms.
+    // See http://openweathermap.org/weather-conditions
+    static final int FIRST_PRECIP_WEATHER_ID = 200;
+    static final int LAST_PRECIP_WEATHER_ID = 699;
+
+    /**
+     * Archives every weather row dated before the cutoff and deletes it from the weather table.
+     * Must be called inside a transaction.
+     *
+     * @param cutoffDay Rows dated before this day since the epoch are archived.
+     * @param maxMonths The number of months of history kept for each location.
+     * @return The number of daily rows archived.
+     */
+    static int archive(SQLiteDatabase db, long cutoffDay, int maxMonths) {
+        String[] cutoffArgs = new String[]{Long.toString(cutoffDay)};
+        List<MonthAggregate> months = new ArrayList<MonthAggregate>();
+        int rowsArchived = 0;
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, EXPIRED_COLUMNS, sExpiredSelection,
+                cutoffArgs, null, null,
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE);
+        try {
+            Time time = new Time();
+            MonthAggregate month = null;
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(INDEX_LOC_KEY);
+                long monthStart = getMonthStart(time, cursor.getLong(INDEX_DATE));
+                // The rows are sorted, so a month is finished as soon as we see a different one
+                if (month == null || month.locationId != locationId || month.month != monthStart) {
+                    month = new MonthAggregate(locationId, monthStart);
+                    months.add(month);
+                }
+                month.add(cursor.getDouble(INDEX_MIN_TEMP), cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY), cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED), cursor.getInt(INDEX_WEATHER_ID));
+                rowsArchived++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (rowsArchived == 0) {
+            return 0;
+        }
+
+        Set<Long> locationIds = new HashSet<Long>();
+        for (MonthAggregate month : months) {
+            mergeExisting(db, month);
+            db.insertWithOnConflict(HistoryEntry.TABLE_NAME, null, month.toContentValues(),
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            locationIds.add(month.locationId);
+        }
+        db.delete(WeatherEntry.TABLE_NAME, sExpiredSelection, cutoffArgs);
+
+        for (Long locationId : locationIds) {
+            db.execSQL(sTrimLocationSql, new Object[]{locationId, locationId, maxMonths});
+        }
+        return rowsArchived;
+    }
+
+    /**
+     * Returns the day since the epoch of the start of the month the given day falls in.
+     */
+    static long getMonthStart(Time time, long epochDay) {
+        time.setJulianDay((int) (epochDay + Time.EPOCH_JULIAN_DAY));
+        return epochDay - (time.monthDay - 1);
+    }
+
+    private static void mergeExisting(SQLiteDatabase db, MonthAggregate month) {
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, MonthAggregate.HISTORY_COLUMNS,
+                sLocationAndMonthSelection,
+                new String[]{Long.toString(month.locationId), Long.toString(month.month)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                month.merge(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Running totals for one location and month.
+     */
+    private static final class MonthAggregate {
+
+        static final String[] HISTORY_COLUMNS = {
+                HistoryEntry.COLUMN_DAYS,
+                HistoryEntry.COLUMN_MIN_TEMP,
+                HistoryEntry.COLUMN_MAX_TEMP,
+                HistoryEntry.COLUMN_AVG_MIN_TEMP,
+                HistoryEntry.COLUMN_AVG_MAX_TEMP,
+                HistoryEntry.COLUMN_AVG_HUMIDITY,
+                HistoryEntry.COLUMN_AVG_PRESSURE,
+                HistoryEntry.COLUMN_AVG_WIND_SPEED,
+                HistoryEntry.COLUMN_PRECIP_DAYS,
+                HistoryEntry.COLUMN_DOMINANT_WEATHER_ID,
+                HistoryEntry.COLUMN_DOMINANT_DAYS
+        };
+        // these indices must match the projection
+        static final int INDEX_DAYS = 0;
+        static final int INDEX_MIN_TEMP = 1;
+        static final int INDEX_MAX_TEMP = 2;
+        static final int INDEX_AVG_MIN_TEMP = 3;
+        static final int INDEX_AVG_MAX_TEMP = 4;
+        static final int INDEX_AVG_HUMIDITY = 5;
+        static final int INDEX_AVG_PRESSURE = 6;
+        static final int INDEX_AVG_WIND_SPEED = 7;
+        static final int INDEX_PRECIP_DAYS = 8;
+        static final int INDEX_DOMINANT_WEATHER_ID = 9;
+        static final int INDEX_DOMINANT_DAYS = 10;
+
+        final long locationId;
+        final long month;
+
+        int days;
+        double minTemp = Double.MAX_VALUE;
+        double maxTemp = -Double.MAX_VALUE;
+        double sumMinTemp;
+        double sumMaxTemp;
+        double sumHumidity;
+        double sumPressure;
+        double sumWindSpeed;
+        int precipDays;
+
+        // Number of days each weather id was seen in this batch
+        final SparseIntArray weatherIdDays = new SparseIntArray();
+        // The dominant weather id of the rows archived by earlier runs
+        int archivedWeatherId = -1;
+        int archivedWeatherIdDays;
+
+        MonthAggregate(long locationId, long month) {
+            this.locationId = locationId;
+            this.month = month;
+        }
+
+        void add(double min, double max, double humidity, double pressure, double windSpeed,
+                 int weatherId) {
+            days++;
+            minTemp = Math.min(minTemp, min);
+            maxTemp = Math.max(maxTemp, max);
+            sumMinTemp += min;
+            sumMaxTemp += max;
+            sumHumidity += humidity;
+            sumPressure += pressure;
+            sumWindSpeed += windSpeed;
+            if (weatherId >= FIRST_PRECIP_WEATHER_ID && weatherId <= LAST_PRECIP_WEATHER_ID) {
+                precipDays++;
+            }
+            weatherIdDays.put(weatherId, weatherIdDays.get(weatherId) + 1);
+        }
+
+        /**
+         * Folds in the history row an earlier run already wrote for this month.
+         */
+        void merge(Cursor history) {
+            int archivedDays = history.getInt(INDEX_DAYS);
+            days += archivedDays;
+            minTemp = Math.min(minTemp, history.getDouble(INDEX_MIN_TEMP));
+            maxTemp = Math.max(maxTemp, history.getDouble(INDEX_MAX_TEMP));
+            sumMinTemp += history.getDouble(INDEX_AVG_MIN_TEMP) * archivedDays;
+            sumMaxTemp += history.getDouble(INDEX_AVG_MAX_TEMP) * archivedDays;
+            sumHumidity += history.getDouble(INDEX_AVG_HUMIDITY) * archivedDays;
+            sumPressure += history.getDouble(INDEX_AVG_PRESSURE) * archivedDays;
+            sumWindSpeed += history.getDouble(INDEX_AVG_WIND_SPEED) * archivedDays;
+            precipDays += history.getInt(INDEX_PRECIP_DAYS);
+            archivedWeatherId = history.getInt(INDEX_DOMINANT_WEATHER_ID);
+            archivedWeatherIdDays = history.getInt(INDEX_DOMINANT_DAYS);
+        }
+
+        ContentValues toContentValues() {
+            // Only the winner of earlier runs is remembered, so the dominant weather id of a
+            // month archived in several runs is the most common one we can still count.
+            int dominantWeatherId = archivedWeatherId;
+            int dominantDays = archivedWeatherIdDays;
+            if (archivedWeatherId != -1) {
+                weatherIdDays.put(archivedWeatherId,
+                        weatherIdDays.get(archivedWeatherId) + archivedWeatherIdDays);
+            }
+            for (int i = 0; i < weatherIdDays.size(); i++) {
+                if (weatherIdDays.valueAt(i) > dominantDays) {
+                    dominantWeatherId = weatherIdDays.keyAt(i);
+                    dominantDays = weatherIdDays.valueAt(i);
+                }
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+            values.put(HistoryEntry.COLUMN_MONTH, month);
+            values.put(HistoryEntry.COLUMN_DAYS, days);
+            values.put(HistoryEntry.COLUMN_MIN_TEMP, minTemp);
+            values.put(HistoryEntry.COLUMN_MAX_TEMP, maxTemp);
+            values.put(HistoryEntry.COLUMN_AVG_MIN_TEMP, sumMinTemp / days);
+            values.put(HistoryEntry.COLUMN_AVG_MAX_TEMP, sumMaxTemp / days);
+            values.put(HistoryEntry.COLUMN_AVG_HUMIDITY, sumHumidity / days);
+            values.put(HistoryEntry.COLUMN_AVG_PRESSURE, sumPressure / days);
+            values.put(HistoryEntry.COLUMN_AVG_WIND_SPEED, sumWindSpeed / days);
+            values.put(HistoryEntry.COLUMN_PRECIP_DAYS, precipDays);
+            values.put(HistoryEntry.COLUMN_DOMINANT_WEATHER_ID, dominantWeatherId);
+            values.put(HistoryEntry.COLUMN_DOMINANT_DAYS, dominantDays);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the weather database out as a stream, and reads one back in, for
+ * {@link WeatherContract.BackupEntry}.
+ *
+ * The stream starts with a magic number and a format version, followed by one record per row
+ * and an end marker.  Each record is its type, its length in bytes, the number of values and
+ * then the values, each tagged with its type.  Rows are written and read one at a time, so
+ * neither side ever holds more than a single row in memory.  Because every record says how long
+ * it is, a reader can skip the record types a newer version adds, and ignores any values past
+ * the columns it knows about.
+ *
+ * Dates are written the way the database stores them, as days since the epoch.
+ */
+class WeatherBackup {
+
+    static final int MAGIC = 0x53574258; // "SWBX"
+    static final int VERSION = 1;
+
+    private static final int RECORD_END = 0;
+    private static final int RECORD_LOCATION = 1;
+    private static final int RECORD_WEATHER = 2;
+    private static final int RECORD_CURRENT = 3;
+    private static final int RECORD_HISTORY = 4;
+
+    // Value tags, the same as the Cursor.FIELD_TYPE_* constants
+    private static final int VALUE_NULL = Cursor.FIELD_TYPE_NULL;
+    private static final int VALUE_INTEGER = Cursor.FIELD_TYPE_INTEGER;
+    private static final int VALUE_FLOAT = Cursor.FIELD_TYPE_FLOAT;
+    private static final int VALUE_STRING = Cursor.FIELD_TYPE_STRING;
+    private static final int VALUE_BLOB = Cursor.FIELD_TYPE_BLOB;
+
+    // The columns of each record type, in the order they're written.  Only ever add to the end
+    // of these, and bump VERSION if the meaning of a column changes.
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] CURRENT_COLUMNS = {
+            CurrentEntry._ID,
+            CurrentEntry.COLUMN_LOCATION_SETTING,
+            CurrentEntry.COLUMN_CITY_NAME,
+            CurrentEntry.COLUMN_COORD_LAT,
+            CurrentEntry.COLUMN_COORD_LONG,
+            CurrentEntry.COLUMN_DATE,
+            CurrentEntry.COLUMN_SHORT_DESC,
+            CurrentEntry.COLUMN_WEATHER_ID,
+            CurrentEntry.COLUMN_MIN_TEMP,
+            CurrentEntry.COLUMN_MAX_TEMP,
+            CurrentEntry.COLUMN_HUMIDITY,
+            CurrentEntry.COLUMN_PRESSURE,
+            CurrentEntry.COLUMN_WIND_SPEED,
+            CurrentEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] HISTORY_COLUMNS = {
+            HistoryEntry.COLUMN_LOC_KEY,
+            HistoryEntry.COLUMN_MONTH,
+            HistoryEntry.COLUMN_DAYS,
+            HistoryEntry.COLUMN_MIN_TEMP,
+            HistoryEntry.COLUMN_MAX_TEMP,
+            HistoryEntry.COLUMN_AVG_MIN_TEMP,
+            HistoryEntry.COLUMN_AVG_MAX_TEMP,
+            HistoryEntry.COLUMN_AVG_HUMIDITY,
+            HistoryEntry.COLUMN_AVG_PRESSURE,
+            HistoryEntry.COLUMN_AVG_WIND_SPEED,
+            HistoryEntry.COLUMN_PRECIP_DAYS,
+            HistoryEntry.COLUMN_DOMINANT_WEATHER_ID,
+            HistoryEntry.COLUMN_DOMINANT_DAYS
+    };
+
+    //location.location_setting = ?
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    /**
+     * Writes every location, with its forecasts, current conditions and history, to the stream.
+     * The locations come first, so that a reader knows every location before its rows.
+     */
+    static void export(SQLiteDatabase db, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        RecordWriter writer = new RecordWriter(out);
+        writer.writeTable(db, LocationEntry.TABLE_NAME, LOCATION_COLUMNS, RECORD_LOCATION);
+        writer.writeTable(db, WeatherEntry.TABLE_NAME, WEATHER_COLUMNS, RECORD_WEATHER);
+        writer.writeTable(db, CurrentEntry.TABLE_NAME, CURRENT_COLUMNS, RECORD_CURRENT);
+        writer.writeTable(db, HistoryEntry.TABLE_NAME, HISTORY_COLUMNS, RECORD_HISTORY);
+
+        out.writeByte(RECORD_END);
+        out.flush();
+    }
+
+    /**
+     * Reads a stream written by {@link #export} into the database.  Locations are matched by
+     * their location setting, and rows for the same location and day (or month) replace the
+     * ones already there.  Must be called inside a transaction, so that a stream that turns out
+     * to be broken halfway through changes nothing.
+     *
+     * @return The number of rows read.
+     * @throws IOException If the stream isn't a backup this version can read, or ends early.
+     */
+    static int restore(SQLiteDatabase db, InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        readHeader(in);
+
+        // Location ids in the backup, mapped to the ids of the same locations in this database
+        Map<Long, Long> locationIds = new HashMap<Long, Long>();
+        RecordReader reader = new RecordReader(in);
+        ContentValues values = new ContentValues();
+        int rows = 0;
+        int type;
+        while ((type = reader.next()) != RECORD_END) {
+            switch (type) {
+                case RECORD_LOCATION:
+                    reader.readValues(LOCATION_COLUMNS, values);
+                    Long backupId = values.getAsLong(LocationEntry._ID);
+                    values.remove(LocationEntry._ID);
+                    locationIds.put(backupId, restoreLocation(db, values));
+                    break;
+                case RECORD_WEATHER:
+                    reader.readValues(WEATHER_COLUMNS, values);
+                    if (!mapLocationId(locationIds, values, WeatherEntry.COLUMN_LOC_KEY)) {
+                        continue;
+                    }
+                    db.insertOrThrow(WeatherEntry.TABLE_NAME, null, values);
+                    break;
+                case RECORD_CURRENT:
+                    reader.readValues(CURRENT_COLUMNS, values);
+                    if (!mapLocationId(locationIds, values, CurrentEntry._ID)) {
+                        continue;
+                    }
+                    db.insertOrThrow(CurrentEntry.TABLE_NAME, null, values);
+                    break;
+                case RECORD_HISTORY:
+                    reader.readValues(HISTORY_COLUMNS, values);
+                    if (!mapLocationId(locationIds, values, HistoryEntry.COLUMN_LOC_KEY)) {
+                        continue;
+                    }
+                    db.insertOrThrow(HistoryEntry.TABLE_NAME, null, values);
+                    break;
+                default:
+                    // Written by a newer version, which knows what to do with it
+                    reader.skip();
+                    continue;
+            }
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Copies a stream written by {@link #export} up to and including its end marker, checking the
+     * header and the length of every record on the way, so that a backup can be read in full
+     * before {@link #restore} starts writing to the database.
+     *
+     * @throws IOException If the stream isn't a backup this version can read, or ends early.
+     */
+    static void copy(InputStream stream, OutputStream destination) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(destination));
+        out.writeInt(MAGIC);
+        out.writeInt(readHeader(in));
+
+        RecordReader reader = new RecordReader(in);
+        int type;
+        while ((type = reader.next()) != RECORD_END) {
+            reader.writeTo(out, type);
+        }
+        out.writeByte(RECORD_END);
+        out.flush();
+    }
+
+    // Checks the magic number and returns the format version
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a weather backup");
+        }
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported weather backup version " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Adds the location, or updates the one with the same location setting, and returns its id.
+     */
+    private static long restoreLocation(SQLiteDatabase db, ContentValues values) {
+        String[] settingArgs = {values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING)};
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                sLocationSettingSelection, settingArgs, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                db.update(LocationEntry.TABLE_NAME, values, sLocationSettingSelection, settingArgs);
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return db.insertOrThrow(LocationEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Points the row at the local id of its location.  Returns false for a row whose location
+     * wasn't in the backup.
+     */
+    private static boolean mapLocationId(Map<Long, Long> locationIds, ContentValues values,
+                                         String column) {
+        Long locationId = locationIds.get(values.getAsLong(column));
+        if (locationId == null) {
+            return false;
+        }
+        values.put(column, locationId);
+        return true;
+    }
+
+    private static final class RecordWriter {
+        private final DataOutputStream mOut;
+        // Each record is put together here first, so that its length can be written before it
+        private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mRecord = new DataOutputStream(mRecordBytes);
+
+        RecordWriter(DataOutputStream out) {
+            mOut = out;
+        }
+
+        void writeTable(SQLiteDatabase db, String table, String[] columns, int type)
+                throws IOException {
+            Cursor cursor = db.query(table, columns, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    writeRecord(cursor, type);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void writeRecord(Cursor cursor, int type) throws IOException {
+            mRecordBytes.reset();
+            int columnCount = cursor.getColumnCount();
+            mRecord.writeShort(columnCount);
+            for (int column = 0; column < columnCount; column++) {
+                int valueType = cursor.getType(column);
+                mRecord.writeByte(valueType);
+                switch (valueType) {
+                    case VALUE_NULL:
+                        break;
+                    case VALUE_INTEGER:
+                        mRecord.writeLong(cursor.getLong(column));
+                        break;
+                    case VALUE_FLOAT:
+                        mRecord.writeDouble(cursor.getDouble(column));
+                        break;
+                    case VALUE_STRING:
+                        mRecord.writeUTF(cursor.getString(column));
+                        break;
+                    case VALUE_BLOB:
+                        byte[] blob = cursor.getBlob(column);
+                        mRecord.writeInt(blob.length);
+                        mRecord.write(blob);
+                        break;
+                }
+            }
+            mOut.writeByte(type);
+            mOut.writeInt(mRecordBytes.size());
+            mRecordBytes.writeTo(mOut);
+        }
+    }
+
+    private static final class RecordReader {
+        private final DataInputStream mIn;
+        private byte[] mBuffer = new byte[256];
+        private int mLength;
+
+        RecordReader(DataInputStream in) {
+            mIn = in;
+        }
+
+        /**
+         * Reads the next record into the buffer and returns its type.
+         */
+        int next() throws IOException {
+            int type = mIn.readUnsignedByte();
+            if (type == RECORD_END) {
+                return type;
+            }
+            mLength = mIn.readInt();
+            if (mLength < 0) {
+                throw new IOException("Corrupt weather backup record");
+            }
+            if (mLength > mBuffer.length) {
+                mBuffer = new byte[Math.max(mLength, mBuffer.length * 2)];
+            }
+            mIn.readFully(mBuffer, 0, mLength);
+            return type;
+        }
+
+        void skip() {
+            mLength = 0;
+        }
+
+        /**
+         * Writes the current record out again, exactly as it was read.
+         */
+        void writeTo(DataOutputStream out, int type) throws IOException {
+            out.writeByte(type);
+            out.writeInt(mLength);
+            out.write(mBuffer, 0, mLength);
+        }
+
+        /**
+         * Decodes the current record into values, one value per known column.
+         */
+        void readValues(String[] columns, ContentValues values) throws IOException {
+            values.clear();
+            DataInputStream record = new DataInputStream(
+                    new ByteArrayInputStream(mBuffer, 0, mLength));
+            int valueCount = record.readUnsignedShort();
+            for (int i = 0; i < valueCount && i < columns.length; i++) {
+                String column = columns[i];
+                int valueType = record.readUnsignedByte();
+                switch (valueType) {
+                    case VALUE_NULL:
+                        values.putNull(column);
+                        break;
+                    case VALUE_INTEGER:
+                        values.put(column, record.readLong());
+                        break;
+                    case VALUE_FLOAT:
+                        values.put(column, record.readDouble());
+                        break;
+                    case VALUE_STRING:
+                        values.put(column, record.readUTF());
+                        break;
+                    case VALUE_BLOB:
+                        byte[] blob = new byte[record.readInt()];
+                        record.readFully(blob);
+                        values.put(column, blob);
+                        break;
+                    default:
+                        throw new IOException("Corrupt weather backup value");
+                }
+            }
+        }
+    }
+}
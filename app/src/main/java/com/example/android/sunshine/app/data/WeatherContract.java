@@ -43,6 +43,11 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_CURRENT = "current";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_DASHBOARD = "dashboard";
+    public static final String PATH_BACKUP = "backup";
+    public static final String PATH_GAZETTEER = "gazetteer";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -54,6 +59,100 @@ public class WeatherContract {
         return time.setJulianDay(julianDay);
     }
 
+    // The database stores dates as the number of local days since 1970-01-01, which takes two or
+    // three bytes a row (and index entry) where milliseconds take six.  Cursors, URIs and the
+    // ContentValues handed to the provider still use normalized milliseconds; the provider
+    // converts with these two.  Long.MIN_VALUE and Long.MAX_VALUE, used for open ended ranges,
+    // are passed through as they are.
+    public static long toEpochDay(long date) {
+        if (date == Long.MIN_VALUE || date == Long.MAX_VALUE) {
+            return date;
+        }
+        Time time = new Time();
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff) - Time.EPOCH_JULIAN_DAY;
+    }
+
+    public static long fromEpochDay(long epochDay) {
+        if (epochDay == Long.MIN_VALUE || epochDay == Long.MAX_VALUE) {
+            return epochDay;
+        }
+        Time time = new Time();
+        return time.setJulianDay((int) (epochDay + Time.EPOCH_JULIAN_DAY));
+    }
+
+    // Methods that can be passed to ContentResolver.call() on BASE_CONTENT_URI.
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+    // Rolls expired weather rows into the monthly history table.  Both extras are optional, the
+    // defaults come from the app's resources.  The returned Bundle holds EXTRA_ROWS_ARCHIVED.
+    public static final String METHOD_ARCHIVE_WEATHER = "archive_weather";
+
+    // Weather rows dated before this (in milliseconds) get archived
+    public static final String EXTRA_ARCHIVE_BEFORE = "archive_before";
+    // The number of months of history kept for each location
+    public static final String EXTRA_MAX_HISTORY_MONTHS = "max_history_months";
+    public static final String EXTRA_ROWS_ARCHIVED = "rows_archived";
+    // Checks the database for corruption, releases its free pages and refreshes the query
+    // planner's statistics.  Slow, so only call it while the device is idle.  The returned
+    // Bundle holds the same DatabaseStats as METHOD_GET_DATABASE_STATS.
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+    public static final String METHOD_GET_DATABASE_STATS = "get_database_stats";
+    // Latency histograms, row counts and callers of every provider route, and the log of slow
+    // calls, as a JSON string in EXTRA_PROVIDER_METRICS.  The same numbers are printed by dumpsys.
+    public static final String METHOD_GET_PROVIDER_METRICS = "get_provider_metrics";
+    public static final String EXTRA_PROVIDER_METRICS = "provider_metrics";
+
+    /* Keys of the Bundle returned for METHOD_GET_QUERY_CACHE_STATS */
+    public static final class QueryCacheStats {
+        public static final String HITS = "hits";
+        public static final String MISSES = "misses";
+        // Hits divided by lookups, as a float between 0 and 1
+        public static final String HIT_RATE = "hit_rate";
+        public static final String EVICTIONS = "evictions";
+        public static final String INVALIDATIONS = "invalidations";
+        public static final String ENTRIES = "entries";
+        // Estimated size of the cached results, and the limit it is trimmed to
+        public static final String SIZE_BYTES = "size_bytes";
+        public static final String MAX_SIZE_BYTES = "max_size_bytes";
+    }
+
+    /* Keys of the Bundle returned for METHOD_GET_DATABASE_STATS and METHOD_RUN_MAINTENANCE */
+    public static final class DatabaseStats {
+        // Size of the database file, and how many of its pages are unused
+        public static final String SIZE_BYTES = "size_bytes";
+        public static final String FREE_PAGES = "free_pages";
+        public static final String PAGE_SIZE = "page_size";
+        // When the last maintenance run finished, in milliseconds, or 0 if it never ran
+        public static final String LAST_MAINTENANCE = "last_maintenance";
+        // How long the last maintenance run took, and how many pages it gave back
+        public static final String MAINTENANCE_MILLIS = "maintenance_millis";
+        public static final String PAGES_RECLAIMED = "pages_reclaimed";
+        // Whether the database passed the integrity check of the last maintenance run
+        public static final String INTEGRITY_OK = "integrity_ok";
+    }
+
+    /*
+        Columns of the single row returned by the stats routes of the weather and history tables.
+        Over an empty range the row has 0 days and null values.
+     */
+    public interface StatsColumns {
+        // Number of days the statistics cover
+        String COLUMN_DAYS = "days";
+        // Lowest minimum and highest maximum temperature
+        String COLUMN_MIN_TEMP = "min";
+        String COLUMN_MAX_TEMP = "max";
+        // Average daily minimum and maximum temperature
+        String COLUMN_AVG_MIN_TEMP = "avg_min";
+        String COLUMN_AVG_MAX_TEMP = "avg_max";
+        // Number of days with rain, snow, drizzle or thunderstorms
+        String COLUMN_PRECIP_DAYS = "precip_days";
+        // The most common weather id
+        String COLUMN_DOMINANT_WEATHER_ID = "dominant_weather_id";
+    }
+
+    // Path of the stats routes, e.g. weather/94043/stats?from=...&to=...
+    public static final String PATH_STATS = "stats";
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -81,9 +180,111 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Great circle distance in kilometres from the point of a nearest query.  Only returned
+        // by the nearest route.
+        public static final String COLUMN_DISTANCE = "distance";
+
+        // Paths of the spatial routes, location/nearest?lat=...&lon=...&count=... for the
+        // locations nearest to a point, nearest first, and
+        // location/box?south=...&west=...&north=...&east=... for the locations inside a box.
+        // A box whose west edge is east of its east edge crosses the 180th meridian.
+        public static final String PATH_NEAREST = "nearest";
+        public static final String PATH_BOX = "box";
+
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LONG = "lon";
+        public static final String PARAM_COUNT = "count";
+        public static final String PARAM_SOUTH = "south";
+        public static final String PARAM_WEST = "west";
+        public static final String PARAM_NORTH = "north";
+        public static final String PARAM_EAST = "east";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationNearestUri(double lat, double lon, int count) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONG, Double.toString(lon))
+                    .appendQueryParameter(PARAM_COUNT, Integer.toString(count)).build();
+        }
+
+        public static Uri buildLocationBoxUri(double south, double west, double north,
+                                              double east) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_BOX)
+                    .appendQueryParameter(PARAM_SOUTH, Double.toString(south))
+                    .appendQueryParameter(PARAM_WEST, Double.toString(west))
+                    .appendQueryParameter(PARAM_NORTH, Double.toString(north))
+                    .appendQueryParameter(PARAM_EAST, Double.toString(east)).build();
+        }
+
+        // The nearest route returns a single location unless it's given a count
+        public static int getCountFromUri(Uri uri) {
+            String countString = uri.getQueryParameter(PARAM_COUNT);
+            if (null != countString && countString.length() > 0)
+                return Integer.parseInt(countString);
+            else
+                return 1;
+        }
+
+        // Coordinates are required, so a missing one is an error
+        public static double getCoordinateFromUri(Uri uri, String name) {
+            String coordinateString = uri.getQueryParameter(name);
+            if (null == coordinateString || coordinateString.length() == 0) {
+                throw new IllegalArgumentException("Missing " + name + " in " + uri);
+            }
+            return Double.parseDouble(coordinateString);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the bundled gazetteer, the cities the
+        location setting suggests as the user types.  Querying gazetteer/<text> returns the cities
+        with a word starting with each word of the text, most prominent first.
+     */
+    public static final class GazetteerEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_GAZETTEER).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_GAZETTEER;
+
+        public static final String TABLE_NAME = "gazetteer";
+
+        public static final String COLUMN_CITY_NAME = "city_name";
+        // ISO 3166 country code
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+        // "City,CC", the form openweathermap resolves to exactly this city
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // Maximum number of suggestions to return, DEFAULT_LIMIT if it isn't given
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_LIMIT = 10;
+
+        public static Uri buildGazetteerSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(text).build();
+        }
+
+        public static Uri buildGazetteerSearchUri(String text, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(text)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static String getSearchTextFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return DEFAULT_LIMIT;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -101,7 +302,8 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as long in milliseconds since the epoch
+        // Date, stored as the day since the epoch (see toEpochDay) and read back as a long in
+        // milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
@@ -126,6 +328,16 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Path of the paged date range route, e.g. weather/94043/range?from=...&to=...&limit=14
+        public static final String PATH_RANGE = "range";
+
+        // Query parameters of the range route.  "from" and "to" are inclusive, "after" is the
+        // date of the last row of the previous page, and "limit" is the page size.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_AFTER = "after";
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +361,93 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            The location id forms, e.g. location/12/weather, read the weather table on its own
+            instead of joining it with the location table to match the location setting.  They
+            can only project weather columns.
+         */
+        public static Uri buildWeatherLocationId(long locationId) {
+            return LocationEntry.buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_WEATHER).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildWeatherLocationIdWithDate(long locationId, long date) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+
+        public static long getDateFromLocationIdUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+
+        public static Uri buildWeatherLocationStats(
+                String locationSetting, long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toDate)).build();
+        }
+
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long fromDate, long toDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_RANGE)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * Returns the URI of the page that follows the one that ended on lastDate.  Paging on the
+         * date rather than an offset means every page is a single index seek, however deep it is.
+         */
+        public static Uri buildNextPage(Uri rangeUri, long lastDate) {
+            Uri.Builder builder = rangeUri.buildUpon().clearQuery();
+            for (String name : rangeUri.getQueryParameterNames()) {
+                if (!PARAM_AFTER.equals(name)) {
+                    builder.appendQueryParameter(name, rangeUri.getQueryParameter(name));
+                }
+            }
+            return builder.appendQueryParameter(PARAM_AFTER, Long.toString(lastDate)).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        public static long getFromDateFromUri(Uri uri) {
+            return getLongQueryParameter(uri, PARAM_FROM, Long.MIN_VALUE);
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            return getLongQueryParameter(uri, PARAM_TO, Long.MAX_VALUE);
+        }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            return getLongQueryParameter(uri, PARAM_AFTER, Long.MIN_VALUE);
+        }
+
+        // Returns 0 when the page size isn't limited
+        public static int getLimitFromUri(Uri uri) {
+            return (int) getLongQueryParameter(uri, PARAM_LIMIT, 0);
+        }
+
+        private static long getLongQueryParameter(Uri uri, String name, long defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return defaultValue;
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -165,4 +460,208 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the current conditions table.  This is a
+        denormalized copy of today's weather row, joined with its location, kept up to date by the
+        sync adapter.  There's one row per location, so "today" readers get it with a single
+        lookup instead of joining the weather and location tables.  Once the row's day is over,
+        the current routes read today's weather through the join instead, until the next sync
+        replaces the row.
+     */
+    public static final class CurrentEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static final String TABLE_NAME = "current_conditions";
+
+        // The _ID of a current conditions row is the _ID of its location, so there can only
+        // ever be one row per location.
+
+        // Copied from the location table
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+        public static final String COLUMN_CITY_NAME = LocationEntry.COLUMN_CITY_NAME;
+        public static final String COLUMN_COORD_LAT = LocationEntry.COLUMN_COORD_LAT;
+        public static final String COLUMN_COORD_LONG = LocationEntry.COLUMN_COORD_LONG;
+
+        // Copied from today's row in the weather table
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        public static Uri buildCurrentLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        // location/12/current, looked up on the primary key
+        public static Uri buildCurrentLocationId(long locationId) {
+            return LocationEntry.buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_CURRENT).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+    }
+
+    /*
+        The dashboard is a view rather than a table: every location, LEFT JOINed with its weather
+        rows for a number of days starting at a date.  Locations without weather for those days
+        get a single row with null weather columns.  As with the other joined routes, the _id
+        columns of a projection need to be qualified with a table name.
+     */
+    public static final class DashboardEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DASHBOARD).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DASHBOARD;
+
+        // First day to include, defaults to today
+        public static final String PARAM_DATE = "date";
+        // Number of days to include for each location, defaults to 1
+        public static final String PARAM_DAYS = "days";
+
+        public static Uri buildDashboardUri(long date, int days) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_DATE, Long.toString(normalizeDate(date)))
+                    .appendQueryParameter(PARAM_DAYS, Integer.toString(days)).build();
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return normalizeDate(System.currentTimeMillis());
+        }
+
+        public static int getDaysFromUri(Uri uri) {
+            String daysString = uri.getQueryParameter(PARAM_DAYS);
+            if (null != daysString && daysString.length() > 0)
+                return Integer.parseInt(daysString);
+            else
+                return 1;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather history table.  Once daily
+        weather rows are older than the retention window they're rolled up into one row per
+        location and month, so we can keep years of history for the size of a few weeks of
+        forecasts.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "weather_history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the month, stored as the day since the epoch like WeatherEntry.COLUMN_DATE
+        // and read back as a long in milliseconds since the epoch
+        public static final String COLUMN_MONTH = "month";
+        // Number of daily rows rolled into this month so far
+        public static final String COLUMN_DAYS = "days";
+
+        // Lowest minimum and highest maximum temperature of the month
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages of the daily values over the days archived, stored as floats
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        // Number of days with rain, snow, drizzle or thunderstorms
+        public static final String COLUMN_PRECIP_DAYS = "precip_days";
+
+        // The most common weather id of the month, and the number of days it was seen
+        public static final String COLUMN_DOMINANT_WEATHER_ID = "dominant_weather_id";
+        public static final String COLUMN_DOMINANT_DAYS = "dominant_days";
+
+        // Query parameters limiting the months returned, both inclusive
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithRange(
+                String locationSetting, long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromDate))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toDate)).build();
+        }
+
+        public static Uri buildHistoryLocationStats(
+                String locationSetting, long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromDate))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toDate)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        A backup of every location with its forecasts, current conditions and history, as one
+        binary stream.  Open an InputStream on CONTENT_URI to read a backup out, and an
+        OutputStream to restore one.  A restore keeps the locations already there, replaces the
+        rows of the same location and day, and is applied in a single transaction once the
+        stream is closed, after which observers of BASE_CONTENT_URI are notified.
+     */
+    public static final class BackupEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_BACKUP).build();
+
+        public static final String CONTENT_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + "." + PATH_BACKUP;
+    }
 }
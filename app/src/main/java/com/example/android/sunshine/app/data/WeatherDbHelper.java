@@ -19,6 +19,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,12 +30,117 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
+
+    // The last version that stored dates in milliseconds, with only the location and weather tables
+    static final int DATABASE_VERSION_MILLIS_DATES = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Answers the spatial routes.  A box is a range over the latitudes, and the longitudes are
+    // checked on the index entries without going to the table.
+    private static final String SQL_CREATE_LOCATION_COORD_INDEX = "CREATE INDEX location_coord ON " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + ");";
+
+    // Turns a date in milliseconds into the local day since the epoch, the way
+    // WeatherContract.toEpochDay does.  Only used to migrate version 2 databases.
+    static final String SQL_MILLIS_TO_EPOCH_DAY =
+            "CAST(ROUND(julianday(%1$s / 1000, 'unixepoch', 'localtime', 'start of day') - " +
+                    "julianday('1970-01-01')) AS INTEGER)";
+
+    private static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not for the location table?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            // the day since the epoch, see WeatherContract.toEpochDay
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy.
+            // Location first, so that the same index also reads a location's date range
+            // straight off, already sorted, and paging through it never needs a sort or a scan.
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // Today's weather for each location, flattened together with the location it belongs to.
+    // The location setting is UNIQUE so that looking it up is a single index probe.
+    private static final String SQL_CREATE_CURRENT_TABLE = "CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+            CurrentEntry._ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
+            CurrentEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE ON CONFLICT REPLACE NOT NULL, " +
+            CurrentEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            CurrentEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            CurrentEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            CurrentEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            CurrentEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            CurrentEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            " FOREIGN KEY (" + CurrentEntry._ID + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+    // Monthly aggregates of the weather rows that have been archived.  The UNIQUE constraint
+    // doubles as the index history range queries are answered from.
+    private static final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+
+            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_HUMIDITY + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_PRESSURE + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_WIND_SPEED + " REAL NOT NULL, " +
+
+            HistoryEntry.COLUMN_PRECIP_DAYS + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DOMINANT_WEATHER_ID + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DOMINANT_DAYS + " INTEGER NOT NULL, " +
+
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // One row per month per location
+            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);";
+
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, null);
+    }
+
+    WeatherDbHelper(Context context, SQLiteDatabase.CursorFactory cursorFactory) {
+        super(context, DATABASE_NAME, cursorFactory, DATABASE_VERSION);
     }
 
     @Override
@@ -48,43 +155,25 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_COORD_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Version 3 changed how dates are stored and added tables and an index, none of which
+        // needs the forecast a version 2 database already holds to be thrown away.
+        if (oldVersion == DATABASE_VERSION_MILLIS_DATES && newVersion == DATABASE_VERSION) {
+            migrateToEpochDays(sqLiteDatabase);
+            sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_COORD_INDEX);
+            sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_TABLE);
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+            return;
+        }
+
         // This database is only a cache for online data, so its upgrade policy is
         // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
@@ -93,6 +182,41 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Converts the millisecond dates of a version 2 database into days since the epoch.  The
+     * weather table is rebuilt rather than updated in place, since its UNIQUE constraint changed
+     * column order.  The current conditions and history tables don't exist yet, and are created
+     * empty by the caller; the current weather falls back to the weather table until the next sync.
+     */
+    private void migrateToEpochDays(SQLiteDatabase db) {
+        final String oldWeatherTable = WeatherEntry.TABLE_NAME + "_millis";
+        db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldWeatherTable);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE);
+        db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME +
+                " (" + getWeatherColumns(WeatherEntry.COLUMN_DATE) + ")" +
+                " SELECT " + getWeatherColumns(
+                        String.format(SQL_MILLIS_TO_EPOCH_DAY, WeatherEntry.COLUMN_DATE)) +
+                " FROM " + oldWeatherTable);
+        db.execSQL("DROP TABLE " + oldWeatherTable);
+    }
+
+    // The weather table's columns, with the date column replaced by the given expression
+    private static String getWeatherColumns(String date) {
+        return WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                date + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.DatabaseStats;
+
+/**
+ * Keeps weather.db from growing without bound as forecasts are replaced, archived and deleted.
+ *
+ * SQLite only puts deleted pages on a free list, it never gives them back to the file system by
+ * itself.  The first run switches the database to incremental auto vacuum, which takes one full
+ * VACUUM, and every run after that only has to release the pages freed since.  Each run also
+ * checks the database for corruption and refreshes the statistics the query planner works from.
+ *
+ * The results of the last run are kept in the given SharedPreferences, so that they can be
+ * reported together with the current size of the database.
+ */
+class WeatherMaintenance {
+
+    private static final String LOG_TAG = WeatherMaintenance.class.getSimpleName();
+
+    // PRAGMA auto_vacuum value of a database that releases free pages on demand
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final SharedPreferences mPrefs;
+
+    WeatherMaintenance(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * Runs the maintenance on the database, which must not be in a transaction since VACUUM
+     * can't run inside one.
+     *
+     * @return the same statistics as {@link #getStats(SQLiteDatabase)}, now covering this run
+     */
+    Bundle run(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        long freePagesBefore = getFreePages(db);
+
+        // There's no point compacting a corrupt database, and this one is only a cache of online
+        // data that the next sync fills in again anyway.
+        boolean integrityOk = db.isDatabaseIntegrityOk();
+        if (integrityOk) {
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+                // Changing the auto vacuum mode of a database that already has tables only takes
+                // effect once it has been rebuilt
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            } else {
+                // Returns a row for every page it releases, and only keeps going while they are
+                // being read, so the cursor has to be run to the end.
+                Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            }
+            db.execSQL("ANALYZE");
+        } else {
+            Log.e(LOG_TAG, "weather.db failed its integrity check");
+        }
+
+        long duration = SystemClock.elapsedRealtime() - start;
+        long pagesReclaimed = freePagesBefore - getFreePages(db);
+        mPrefs.edit()
+                .putLong(DatabaseStats.LAST_MAINTENANCE, System.currentTimeMillis())
+                .putLong(DatabaseStats.MAINTENANCE_MILLIS, duration)
+                .putLong(DatabaseStats.PAGES_RECLAIMED, pagesReclaimed)
+                .putBoolean(DatabaseStats.INTEGRITY_OK, integrityOk)
+                .apply();
+        Log.d(LOG_TAG, "Maintenance took " + duration + "ms, reclaimed " + pagesReclaimed + " pages");
+        return getStats(db);
+    }
+
+    /**
+     * Returns the current size of the database along with the results of the last maintenance
+     * run, keyed by the names in {@link DatabaseStats}.  The run fields are 0, and INTEGRITY_OK
+     * true, if the maintenance has never run.
+     */
+    Bundle getStats(SQLiteDatabase db) {
+        Bundle stats = new Bundle();
+        stats.putLong(DatabaseStats.SIZE_BYTES,
+                DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) * db.getPageSize());
+        stats.putLong(DatabaseStats.FREE_PAGES, getFreePages(db));
+        stats.putLong(DatabaseStats.PAGE_SIZE, db.getPageSize());
+        stats.putLong(DatabaseStats.LAST_MAINTENANCE,
+                mPrefs.getLong(DatabaseStats.LAST_MAINTENANCE, 0));
+        stats.putLong(DatabaseStats.MAINTENANCE_MILLIS,
+                mPrefs.getLong(DatabaseStats.MAINTENANCE_MILLIS, 0));
+        stats.putLong(DatabaseStats.PAGES_RECLAIMED,
+                mPrefs.getLong(DatabaseStats.PAGES_RECLAIMED, 0));
+        stats.putBoolean(DatabaseStats.INTEGRITY_OK,
+                mPrefs.getBoolean(DatabaseStats.INTEGRITY_OK, true));
+        return stats;
+    }
+
+    private static long getFreePages(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+}
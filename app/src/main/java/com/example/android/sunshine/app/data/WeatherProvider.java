@@ -16,26 +16,90 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.R;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
+    // The path of each route, the name it's reported under in the provider metrics.  Filled in
+    // by buildUriMatcher, so it has to come first.
+    private static final SparseArray<String> sRouteNames = new SparseArray<String>();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private GazetteerDbHelper mGazetteerHelper;
+    private WeatherQueryCache mQueryCache;
+    private WeatherMaintenance mMaintenance;
+    private ProviderMetrics mMetrics;
+
+    // Where the results of the last maintenance run are kept
+    private static final String MAINTENANCE_PREFS_NAME = "weather_maintenance";
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_AND_RANGE = 103;
+    static final int WEATHER_STATS = 104;
     static final int LOCATION = 300;
+    static final int WEATHER_WITH_LOCATION_ID = 301;
+    static final int WEATHER_WITH_LOCATION_ID_AND_DATE = 302;
+    static final int LOCATION_NEAREST = 303;
+    static final int LOCATION_IN_BOX = 304;
+    static final int CURRENT = 400;
+    static final int CURRENT_WITH_LOCATION = 401;
+    static final int CURRENT_WITH_LOCATION_ID = 402;
+    static final int HISTORY = 500;
+    static final int HISTORY_WITH_LOCATION = 501;
+    static final int HISTORY_STATS = 502;
+    static final int DASHBOARD = 600;
+    static final int BACKUP = 700;
+    static final int GAZETTEER_SEARCH = 800;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sDashboardQueryBuilder;
+    private static final SQLiteQueryBuilder sCurrentFromWeatherQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +113,99 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //weather_history INNER JOIN location ON weather_history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //location LEFT JOIN weather ON weather.location_id = location._id
+        //        AND weather.date >= ? AND weather.date < ?
+        // The date range has to be part of the join rather than the WHERE clause, or locations
+        // without weather for those days would be dropped.  Each location is then one seek into
+        // the (location_id, date) index.
+        sDashboardQueryBuilder = new SQLiteQueryBuilder();
+        sDashboardQueryBuilder.setTables(
+                WeatherContract.LocationEntry.TABLE_NAME + " LEFT JOIN " +
+                        WeatherContract.WeatherEntry.TABLE_NAME +
+                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID +
+                        " AND " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?" +
+                        " AND " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?");
+
+        // The same join, with the columns named as in current_conditions, for when a location's
+        // current row is from a day that's already over
+        sCurrentFromWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sCurrentFromWeatherQueryBuilder.setTables(
+                sWeatherByLocationSettingQueryBuilder.getTables());
+        HashMap<String, String> currentColumns = new HashMap<String, String>();
+        String[] locationColumns = {
+                WeatherContract.CurrentEntry._ID,
+                WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.CurrentEntry.COLUMN_CITY_NAME,
+                WeatherContract.CurrentEntry.COLUMN_COORD_LAT,
+                WeatherContract.CurrentEntry.COLUMN_COORD_LONG
+        };
+        for (String column : locationColumns) {
+            currentColumns.put(column,
+                    WeatherContract.LocationEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        String[] weatherColumns = {
+                WeatherContract.CurrentEntry.COLUMN_DATE,
+                WeatherContract.CurrentEntry.COLUMN_SHORT_DESC,
+                WeatherContract.CurrentEntry.COLUMN_WEATHER_ID,
+                WeatherContract.CurrentEntry.COLUMN_MIN_TEMP,
+                WeatherContract.CurrentEntry.COLUMN_MAX_TEMP,
+                WeatherContract.CurrentEntry.COLUMN_HUMIDITY,
+                WeatherContract.CurrentEntry.COLUMN_PRESSURE,
+                WeatherContract.CurrentEntry.COLUMN_WIND_SPEED,
+                WeatherContract.CurrentEntry.COLUMN_DEGREES
+        };
+        for (String column : weatherColumns) {
+            currentColumns.put(column,
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sCurrentFromWeatherQueryBuilder.setProjectionMap(currentColumns);
+    }
+
+    // location._id ASC, weather.date ASC
+    private static final String sDashboardSortOrder =
+            WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " ASC, " + WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private Cursor getDashboard(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        long startDay = WeatherContract.toEpochDay(
+                WeatherContract.DashboardEntry.getDateFromUri(uri));
+        int days = WeatherContract.DashboardEntry.getDaysFromUri(uri);
+
+        // The join's arguments come first, since the FROM clause comes before the WHERE clause
+        int extraArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[2 + extraArgs];
+        args[0] = Long.toString(startDay);
+        args[1] = Long.toString(startDay + days);
+        if (extraArgs != 0) {
+            System.arraycopy(selectionArgs, 0, args, 2, extraArgs);
+        }
+
+        return sDashboardQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                args,
+                null,
+                null,
+                sortOrder == null ? sDashboardSortOrder : sortOrder
+        );
     }
 
     //location.location_setting = ?
@@ -68,6 +225,38 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date >= ? AND date <= ? AND date > ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    // Pages have to be in date order for the "after" parameter to mean anything
+    private static final String sDateAscendingSortOrder =
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private Cursor getWeatherByLocationSettingAndRange(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long fromDate = WeatherContract.WeatherEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.WeatherEntry.getToDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, toEpochDayArg(fromDate), toEpochDayArg(toDate),
+                        toEpochDayArg(afterDate)},
+                null,
+                null,
+                sDateAscendingSortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -79,7 +268,7 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting, toEpochDayArg(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
 
@@ -93,6 +282,278 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND weather.date = ?, in the order of the UNIQUE constraint
+    private static final String sLocationIdAndDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    private Cursor getWeatherByLocationId(Uri uri, String[] projection, String sortOrder) {
+        String locationId = Long.toString(WeatherContract.WeatherEntry.getLocationIdFromUri(uri));
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{locationId};
+        } else {
+            selectionArgs = new String[]{locationId, toEpochDayArg(startDate)};
+            selection = sLocationIdWithStartDateSelection;
+        }
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getWeatherByLocationIdAndDate(Uri uri, String[] projection, String sortOrder) {
+        long locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromLocationIdUri(uri);
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                sLocationIdAndDateSelection,
+                new String[]{Long.toString(locationId), toEpochDayArg(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    //current_conditions._id = ? AND date >= ?
+    private static final String sCurrentLocationIdSelection =
+            WeatherContract.CurrentEntry._ID + " = ? AND " +
+                    WeatherContract.CurrentEntry.COLUMN_DATE + " >= ? ";
+
+    //location._id = ? AND weather.date >= ?
+    private static final String sLocationIdWithStartDayFromJoinSelection =
+            WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " = ? AND " + WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    private Cursor getCurrentByLocationId(Uri uri, String[] projection) {
+        String[] selectionArgs = {
+                Long.toString(WeatherContract.CurrentEntry.getLocationIdFromUri(uri)),
+                toEpochDayArg(System.currentTimeMillis())
+        };
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.CurrentEntry.TABLE_NAME,
+                projection,
+                sCurrentLocationIdSelection,
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        cursor.close();
+        return getCurrentFromWeather(projection, sLocationIdWithStartDayFromJoinSelection,
+                selectionArgs);
+    }
+
+    /**
+     * Reads today's weather from the weather table, for when the current row of a location is
+     * missing or from a day that's already over.  The sync adapter only refreshes the row when it
+     * syncs, which can be hours after midnight.
+     *
+     * @param selection The location, then the first day to return, as in
+     *                  {@link #sCurrentLocationIdSelection}.
+     */
+    private Cursor getCurrentFromWeather(String[] projection, String selection,
+                                         String[] selectionArgs) {
+        return sCurrentFromWeatherQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sDateAscendingSortOrder,
+                "1"
+        );
+    }
+
+    //weather.location_id NOT IN (SELECT _id FROM location)
+    private static final String sWeatherWithoutLocationSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    //current_conditions.location_setting = ? AND date >= ?
+    private static final String sCurrentLocationSettingSelection =
+            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.CurrentEntry.COLUMN_DATE + " >= ? ";
+
+    //current_conditions._id NOT IN (SELECT _id FROM location)
+    private static final String sCurrentWithoutLocationSelection =
+            WeatherContract.CurrentEntry._ID + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    private Cursor getCurrentByLocationSetting(Uri uri, String[] projection) {
+        String[] selectionArgs = {
+                WeatherContract.CurrentEntry.getLocationSettingFromUri(uri),
+                toEpochDayArg(System.currentTimeMillis())
+        };
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.CurrentEntry.TABLE_NAME,
+                projection,
+                sCurrentLocationSettingSelection,
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        cursor.close();
+        return getCurrentFromWeather(projection, sLocationSettingWithStartDateSelection,
+                selectionArgs);
+    }
+
+    //location.location_setting = ? AND month >= ? AND month <= ?
+    private static final String sLocationSettingWithMonthRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_MONTH + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_MONTH + " <= ? ";
+
+    //weather_history.location_id NOT IN (SELECT _id FROM location)
+    private static final String sHistoryWithoutLocationSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        long fromDate = WeatherContract.HistoryEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.HistoryEntry.getToDateFromUri(uri);
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithMonthRangeSelection,
+                new String[]{locationSetting, toEpochDayArg(fromDate), toEpochDayArg(toDate)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    // weather_id BETWEEN 200 AND 699, the ids of rain, snow, drizzle and thunderstorms
+    private static final String sPrecipWeatherIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN " +
+                    WeatherArchive.FIRST_PRECIP_WEATHER_ID + " AND " +
+                    WeatherArchive.LAST_PRECIP_WEATHER_ID;
+
+    // The statistics of a location's weather between two dates, as a single row.  The dominant
+    // weather id needs its own GROUP BY, so it's a subquery over the same range.  Both halves are
+    // answered from the (location_id, date) index.
+    private static final String sWeatherStatsQuery =
+            "SELECT COUNT(*) AS " + WeatherContract.StatsColumns.COLUMN_DAYS + ", " +
+                    "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_MIN_TEMP + ", " +
+                    "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_MAX_TEMP + ", " +
+                    "AVG(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_AVG_MIN_TEMP + ", " +
+                    "AVG(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_AVG_MAX_TEMP + ", " +
+                    "SUM(CASE WHEN " + sPrecipWeatherIdSelection + " THEN 1 ELSE 0 END) AS " +
+                    WeatherContract.StatsColumns.COLUMN_PRECIP_DAYS + ", " +
+                    "(SELECT " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                    " FROM " + sWeatherByLocationSettingQueryBuilder.getTables() +
+                    " WHERE " + sLocationSettingWithDateRangeSelection +
+                    " GROUP BY " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                    " ORDER BY COUNT(*) DESC, " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                    " LIMIT 1) AS " + WeatherContract.StatsColumns.COLUMN_DOMINANT_WEATHER_ID +
+                    " FROM " + sWeatherByLocationSettingQueryBuilder.getTables() +
+                    " WHERE " + sLocationSettingWithDateRangeSelection;
+
+    // The same statistics over archived months.  Averages are weighted by the number of days in
+    // each month, and the dominant weather id is the one that dominated the most days.
+    private static final String sHistoryStatsQuery =
+            "SELECT IFNULL(SUM(" + WeatherContract.HistoryEntry.COLUMN_DAYS + "), 0) AS " +
+                    WeatherContract.StatsColumns.COLUMN_DAYS + ", " +
+                    "MIN(" + WeatherContract.HistoryEntry.COLUMN_MIN_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_MIN_TEMP + ", " +
+                    "MAX(" + WeatherContract.HistoryEntry.COLUMN_MAX_TEMP + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_MAX_TEMP + ", " +
+                    "SUM(" + WeatherContract.HistoryEntry.COLUMN_AVG_MIN_TEMP + " * " +
+                    WeatherContract.HistoryEntry.COLUMN_DAYS + ") / SUM(" +
+                    WeatherContract.HistoryEntry.COLUMN_DAYS + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_AVG_MIN_TEMP + ", " +
+                    "SUM(" + WeatherContract.HistoryEntry.COLUMN_AVG_MAX_TEMP + " * " +
+                    WeatherContract.HistoryEntry.COLUMN_DAYS + ") / SUM(" +
+                    WeatherContract.HistoryEntry.COLUMN_DAYS + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_AVG_MAX_TEMP + ", " +
+                    "SUM(" + WeatherContract.HistoryEntry.COLUMN_PRECIP_DAYS + ") AS " +
+                    WeatherContract.StatsColumns.COLUMN_PRECIP_DAYS + ", " +
+                    "(SELECT " + WeatherContract.HistoryEntry.COLUMN_DOMINANT_WEATHER_ID +
+                    " FROM " + sHistoryByLocationSettingQueryBuilder.getTables() +
+                    " WHERE " + sLocationSettingWithMonthRangeSelection +
+                    " GROUP BY " + WeatherContract.HistoryEntry.COLUMN_DOMINANT_WEATHER_ID +
+                    " ORDER BY SUM(" + WeatherContract.HistoryEntry.COLUMN_DOMINANT_DAYS + ") DESC, " +
+                    WeatherContract.HistoryEntry.COLUMN_DOMINANT_WEATHER_ID +
+                    " LIMIT 1) AS " + WeatherContract.StatsColumns.COLUMN_DOMINANT_WEATHER_ID +
+                    " FROM " + sHistoryByLocationSettingQueryBuilder.getTables() +
+                    " WHERE " + sLocationSettingWithMonthRangeSelection;
+
+    /**
+     * Runs one of the stats queries, narrowed down to the projection if there is one.  The
+     * query repeats its WHERE clause in the dominant weather id subquery, so the arguments are
+     * bound twice.
+     */
+    private Cursor getStats(String statsQuery, String[] projection, String locationSetting,
+                            String[] rangeArgs) {
+        String[] selectionArgs = new String[(rangeArgs.length + 1) * 2];
+        for (int i = 0; i < selectionArgs.length; i += rangeArgs.length + 1) {
+            selectionArgs[i] = locationSetting;
+            System.arraycopy(rangeArgs, 0, selectionArgs, i + 1, rangeArgs.length);
+        }
+        if (projection != null) {
+            statsQuery = "SELECT " + TextUtils.join(", ", projection) + " FROM (" + statsQuery + ")";
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(statsQuery, selectionArgs);
+    }
+
+    private Cursor getWeatherStatsByLocationSetting(Uri uri, String[] projection) {
+        return getStats(sWeatherStatsQuery, projection,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                new String[]{
+                        toEpochDayArg(WeatherContract.WeatherEntry.getFromDateFromUri(uri)),
+                        toEpochDayArg(WeatherContract.WeatherEntry.getToDateFromUri(uri)),
+                        Long.toString(Long.MIN_VALUE)});
+    }
+
+    private Cursor getHistoryStatsByLocationSetting(Uri uri, String[] projection) {
+        return getStats(sHistoryStatsQuery, projection,
+                WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                new String[]{
+                        toEpochDayArg(WeatherContract.HistoryEntry.getFromDateFromUri(uri)),
+                        toEpochDayArg(WeatherContract.HistoryEntry.getToDateFromUri(uri))});
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -101,13 +562,18 @@ public class WeatherProvider extends ContentProvider {
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                new String[]{locationSetting, toEpochDayArg(date)},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    // Dates come in as milliseconds in URIs, but are compared against days in the database
+    private static String toEpochDayArg(long date) {
+        return Long.toString(WeatherContract.toEpochDay(date));
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -125,24 +591,66 @@ public class WeatherProvider extends ContentProvider {
         final String authority = WeatherContract.CONTENT_AUTHORITY;
 
         // For each type of URI you want to add, create a corresponding code.
-        matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
-        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
-        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        addRoute(matcher, authority, WeatherContract.PATH_WEATHER, WEATHER);
+        addRoute(matcher, authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
+        addRoute(matcher, authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        addRoute(matcher, authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.WeatherEntry.PATH_RANGE, WEATHER_WITH_LOCATION_AND_RANGE);
+        addRoute(matcher, authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_STATS, WEATHER_STATS);
+
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION, LOCATION);
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAREST, LOCATION_NEAREST);
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_BOX, LOCATION_IN_BOX);
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION + "/#/" +
+                WeatherContract.PATH_WEATHER, WEATHER_WITH_LOCATION_ID);
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION + "/#/" +
+                WeatherContract.PATH_WEATHER + "/#", WEATHER_WITH_LOCATION_ID_AND_DATE);
+        addRoute(matcher, authority, WeatherContract.PATH_LOCATION + "/#/" +
+                WeatherContract.PATH_CURRENT, CURRENT_WITH_LOCATION_ID);
 
-        matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        addRoute(matcher, authority, WeatherContract.PATH_CURRENT, CURRENT);
+        addRoute(matcher, authority, WeatherContract.PATH_CURRENT + "/*", CURRENT_WITH_LOCATION);
+
+        addRoute(matcher, authority, WeatherContract.PATH_HISTORY, HISTORY);
+        addRoute(matcher, authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        addRoute(matcher, authority, WeatherContract.PATH_HISTORY + "/*/" +
+                WeatherContract.PATH_STATS, HISTORY_STATS);
+
+        addRoute(matcher, authority, WeatherContract.PATH_DASHBOARD, DASHBOARD);
+
+        addRoute(matcher, authority, WeatherContract.PATH_BACKUP, BACKUP);
+        addRoute(matcher, authority, WeatherContract.PATH_GAZETTEER + "/*", GAZETTEER_SEARCH);
         return matcher;
     }
 
+    private static void addRoute(UriMatcher matcher, String authority, String path, int code) {
+        matcher.addURI(authority, path, code);
+        sRouteNames.put(code, path);
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = createOpenHelper();
+        mGazetteerHelper = new GazetteerDbHelper(getContext());
+        mMetrics = new ProviderMetrics(getContext().getPackageManager());
+        mQueryCache = new WeatherQueryCache(WeatherQueryCache.DEFAULT_MAX_BYTES);
+        mMaintenance = new WeatherMaintenance(
+                getContext().getSharedPreferences(MAINTENANCE_PREFS_NAME, Context.MODE_PRIVATE));
         return true;
     }
 
+    // TestQueryPlans overrides this with a helper that records the SQL each route runs
+    WeatherDbHelper createOpenHelper() {
+        return new WeatherDbHelper(getContext());
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -160,10 +668,37 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_AND_RANGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAREST:
+            case LOCATION_IN_BOX:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_ID:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case CURRENT_WITH_LOCATION_ID:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
+            case CURRENT:
+                return WeatherContract.CurrentEntry.CONTENT_TYPE;
+            case CURRENT_WITH_LOCATION:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_STATS:
+                return WeatherContract.HistoryEntry.CONTENT_ITEM_TYPE;
+            case DASHBOARD:
+                return WeatherContract.DashboardEntry.CONTENT_TYPE;
+            case BACKUP:
+                return WeatherContract.BackupEntry.CONTENT_TYPE;
+            case GAZETTEER_SEARCH:
+                return WeatherContract.GazetteerEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,24 +707,97 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        final int tables = getCachedTables(match);
+
+        // The location keyed routes are the ones the list, widgets, Muzei, notification and
+        // watch face keep asking for, so those are served from the cache when we can.
+        Cursor retCursor = null;
+        String cacheKey = null;
+        if (tables != 0) {
+            cacheKey = WeatherQueryCache.buildKey(
+                    match, uri, projection, selection, selectionArgs, sortOrder);
+            if ((tables & WeatherQueryCache.TABLE_CURRENT) != 0) {
+                // The current routes mean today, whichever day that is, so a result from
+                // yesterday mustn't be found again
+                cacheKey += "|" + WeatherContract.toEpochDay(System.currentTimeMillis());
+            }
+            retCursor = mQueryCache.get(cacheKey);
+        }
+        if (retCursor == null) {
+            long generation = mQueryCache.getGeneration();
+            retCursor = EpochDayCursorWrapper.wrap(
+                    queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder));
+            if (cacheKey != null) {
+                retCursor = mQueryCache.put(cacheKey, tables, generation, retCursor);
+            }
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        // Counting the rows runs the query now, rather than when the caller first reads the
+        // cursor, so that it's part of the time recorded
+        mMetrics.record(ProviderMetrics.OP_QUERY, getRouteName(match), uri, Binder.getCallingUid(),
+                start, retCursor.getCount(), getWindowBytes(retCursor));
+        return retCursor;
+    }
+
+    private static String getRouteName(int match) {
+        return sRouteNames.get(match, "unknown");
+    }
+
+    // The estimated size of the window the cursor's rows were read into, or 0 if it doesn't
+    // have one
+    private static int getWindowBytes(Cursor cursor) {
+        if (cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null) {
+                return WeatherQueryCache.estimateSize(window, cursor.getColumnCount());
+            }
+        }
+        return 0;
+    }
+
+    private Cursor queryDatabase(int match, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
+                return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+            }
+            // "weather/*/range"
+            case WEATHER_WITH_LOCATION_AND_RANGE: {
+                return getWeatherByLocationSettingAndRange(uri, projection);
+            }
+            // "location/#/weather/#"
+            case WEATHER_WITH_LOCATION_ID_AND_DATE: {
+                return getWeatherByLocationIdAndDate(uri, projection, sortOrder);
+            }
+            // "location/#/weather"
+            case WEATHER_WITH_LOCATION_ID: {
+                return getWeatherByLocationId(uri, projection, sortOrder);
+            }
+            // "location/#/current"
+            case CURRENT_WITH_LOCATION_ID: {
+                return getCurrentByLocationId(uri, projection);
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                return getWeatherStatsByLocationSetting(uri, projection);
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
+                return getWeatherByLocationSetting(uri, projection, sortOrder);
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                return mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -198,11 +806,10 @@ public class WeatherProvider extends ContentProvider {
                         null,
                         sortOrder
                 );
-                break;
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                return mOpenHelper.getReadableDatabase().query(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -211,14 +818,377 @@ public class WeatherProvider extends ContentProvider {
                         null,
                         sortOrder
                 );
-                break;
+            }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                return NearestLocations.queryNearest(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_LAT),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_LONG),
+                        WeatherContract.LocationEntry.getCountFromUri(uri));
+            }
+            // "location/box"
+            case LOCATION_IN_BOX: {
+                return NearestLocations.queryBox(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_SOUTH),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_WEST),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_NORTH),
+                        WeatherContract.LocationEntry.getCoordinateFromUri(uri,
+                                WeatherContract.LocationEntry.PARAM_EAST),
+                        sortOrder);
+            }
+            // "current/*"
+            case CURRENT_WITH_LOCATION: {
+                return getCurrentByLocationSetting(uri, projection);
+            }
+            // "current"
+            case CURRENT: {
+                return mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CurrentEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                return getHistoryByLocationSetting(uri, projection, sortOrder);
+            }
+            // "dashboard"
+            case DASHBOARD: {
+                return getDashboard(uri, projection, selection, selectionArgs, sortOrder);
+            }
+            // "history/*/stats"
+            case HISTORY_STATS: {
+                return getHistoryStatsByLocationSetting(uri, projection);
+            }
+            // "gazetteer/*"
+            case GAZETTEER_SEARCH: {
+                return searchGazetteer(uri, projection);
+            }
+            // "history"
+            case HISTORY: {
+                return mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
             }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return retCursor;
+    }
+
+    private static final String[] GAZETTEER_COLUMNS = {
+            WeatherContract.GazetteerEntry._ID,
+            WeatherContract.GazetteerEntry.COLUMN_CITY_NAME,
+            WeatherContract.GazetteerEntry.COLUMN_COUNTRY,
+            WeatherContract.GazetteerEntry.COLUMN_COORD_LAT,
+            WeatherContract.GazetteerEntry.COLUMN_COORD_LONG,
+            WeatherContract.GazetteerEntry.COLUMN_LOCATION_SETTING
+    };
+
+    //gazetteer._id IN (SELECT docid FROM gazetteer_fts WHERE gazetteer_fts MATCH ?)
+    // The full text index finds the cities, and ranking them by _id, the order of prominence,
+    // reads them off the primary key without a sort.
+    private static final String sGazetteerMatchSelection =
+            WeatherContract.GazetteerEntry._ID + " IN (SELECT docid FROM " +
+                    GazetteerDbHelper.FTS_TABLE_NAME + " WHERE " +
+                    GazetteerDbHelper.FTS_TABLE_NAME + " MATCH ?)";
+
+    private Cursor searchGazetteer(Uri uri, String[] projection) {
+        String matchQuery = GazetteerDbHelper.buildMatchQuery(
+                WeatherContract.GazetteerEntry.getSearchTextFromUri(uri));
+        if (projection == null) {
+            projection = GAZETTEER_COLUMNS;
+        }
+        if (matchQuery == null) {
+            return new MatrixCursor(projection, 0);
+        }
+        return mGazetteerHelper.getReadableDatabase().query(
+                WeatherContract.GazetteerEntry.TABLE_NAME,
+                projection,
+                sGazetteerMatchSelection,
+                new String[]{matchQuery},
+                null,
+                null,
+                WeatherContract.GazetteerEntry._ID,
+                Integer.toString(WeatherContract.GazetteerEntry.getLimitFromUri(uri))
+        );
+    }
+
+    /**
+     * Returns the tables a cached result for this route would have been read from, or 0 if
+     * results for the route shouldn't be cached at all.  The plain table routes take arbitrary
+     * selections and are mostly used by tests and the sync adapter, so they always go to the
+     * database.
+     */
+    private static int getCachedTables(int match) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_WITH_LOCATION_AND_RANGE:
+            case WEATHER_STATS:
+            case WEATHER_WITH_LOCATION:
+            case DASHBOARD:
+                return WeatherQueryCache.TABLE_WEATHER | WeatherQueryCache.TABLE_LOCATION;
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+            case WEATHER_WITH_LOCATION_ID:
+                return WeatherQueryCache.TABLE_WEATHER;
+            case CURRENT_WITH_LOCATION:
+            case CURRENT_WITH_LOCATION_ID:
+                // Read from the weather table when the current row is out of date
+                return WeatherQueryCache.TABLE_CURRENT | WeatherQueryCache.TABLE_WEATHER |
+                        WeatherQueryCache.TABLE_LOCATION;
+            case HISTORY_WITH_LOCATION:
+            case HISTORY_STATS:
+                return WeatherQueryCache.TABLE_HISTORY | WeatherQueryCache.TABLE_LOCATION;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the table a write through this route changes, so the cache can drop the results
+     * that read from it.
+     */
+    private static int getWrittenTables(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherQueryCache.TABLE_WEATHER;
+            case LOCATION:
+                return WeatherQueryCache.TABLE_LOCATION;
+            case CURRENT:
+                return WeatherQueryCache.TABLE_CURRENT;
+            case HISTORY:
+                return WeatherQueryCache.TABLE_HISTORY;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            return mQueryCache.getStats();
+        }
+        if (WeatherContract.METHOD_ARCHIVE_WEATHER.equals(method)) {
+            return archiveWeather(extras);
+        }
+        if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            // Every table has an INTEGER PRIMARY KEY, so even a full vacuum keeps the row ids and
+            // the cached queries stay valid
+            return mMaintenance.run(mOpenHelper.getWritableDatabase());
+        }
+        if (WeatherContract.METHOD_GET_DATABASE_STATS.equals(method)) {
+            return mMaintenance.getStats(mOpenHelper.getReadableDatabase());
+        }
+        if (WeatherContract.METHOD_GET_PROVIDER_METRICS.equals(method)) {
+            return getProviderMetrics();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle archiveWeather(Bundle extras) {
+        int retentionDays = getContext().getResources().getInteger(R.integer.history_retention_days);
+        long archiveBefore = WeatherContract.normalizeDate(
+                System.currentTimeMillis() - retentionDays * DateUtils.DAY_IN_MILLIS);
+        int maxMonths = getContext().getResources().getInteger(R.integer.history_max_months);
+        if (extras != null) {
+            archiveBefore = extras.getLong(WeatherContract.EXTRA_ARCHIVE_BEFORE, archiveBefore);
+            maxMonths = extras.getInt(WeatherContract.EXTRA_MAX_HISTORY_MONTHS, maxMonths);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsArchived;
+        db.beginTransaction();
+        try {
+            rowsArchived = WeatherArchive.archive(db, WeatherContract.toEpochDay(archiveBefore),
+                    maxMonths);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsArchived != 0) {
+            mQueryCache.invalidate(WeatherQueryCache.TABLE_WEATHER | WeatherQueryCache.TABLE_HISTORY);
+            getContext().getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_ARCHIVED, rowsArchived);
+        return result;
+    }
+
+    private Bundle getProviderMetrics() {
+        Bundle result = new Bundle();
+        try {
+            result.putString(WeatherContract.EXTRA_PROVIDER_METRICS,
+                    mMetrics.toJson().toString());
+        } catch (JSONException e) {
+            // Only numbers and strings go in, so this can't actually happen
+            Log.e(LOG_TAG, "Couldn't write the provider metrics", e);
+        }
+        return result;
+    }
+
+    /**
+     * Prints the provider metrics for
+     * adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider
+     * Add --json to get them as JSON instead, or --reset to start counting over.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        List<String> options = args == null ? Collections.<String>emptyList() : Arrays.asList(args);
+        if (options.contains("--json")) {
+            try {
+                writer.println(mMetrics.toJson().toString(2));
+            } catch (JSONException e) {
+                writer.println("Couldn't write the provider metrics: " + e);
+            }
+        } else {
+            mMetrics.dump(writer);
+        }
+        if (options.contains("--reset")) {
+            mMetrics.clear();
+        }
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) == BACKUP && ClipDescription.compareMimeTypes(
+                WeatherContract.BackupEntry.CONTENT_TYPE, mimeTypeFilter)) {
+            return new String[]{WeatherContract.BackupEntry.CONTENT_TYPE};
+        }
+        return null;
+    }
+
+    /*
+        Backups are streamed through a pipe, so that neither side ever has the whole database in
+        memory.  Reading gets the backup, writing restores one.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BACKUP) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        if (mode.contains("w")) {
+            return openRestorePipe();
+        }
+        return openPipeHelper(uri, WeatherContract.BackupEntry.CONTENT_TYPE, null, null,
+                new PipeDataWriter<Void>() {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                                String mimeType, Bundle opts, Void args) {
+                        OutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        try {
+                            WeatherBackup.export(mOpenHelper.getReadableDatabase(), out);
+                        } catch (IOException e) {
+                            // Most likely the reader went away before the end
+                            Log.w(LOG_TAG, "Weather backup interrupted", e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns the write end of a pipe, and restores whatever is written to it on a thread of the
+     * shared pool.  The backup is copied to a file in the cache until its end marker arrives, and
+     * only then restored, so a writer that stalls holds a pool thread but never the database.  The
+     * restore is only committed if the whole stream reads back correctly.  On API 19 and up a
+     * failed restore closes the read end with an error, which the writer sees from
+     * {@link ParcelFileDescriptor#checkError()}.
+     */
+    private ParcelFileDescriptor openRestorePipe() throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = createRestorePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create the restore pipe: " + e);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File spool = null;
+                String error = null;
+                int rowsRestored = 0;
+                try {
+                    spool = File.createTempFile("restore", null, getContext().getCacheDir());
+                    OutputStream out = new FileOutputStream(spool);
+                    try {
+                        WeatherBackup.copy(
+                                new FileInputStream(pipe[0].getFileDescriptor()), out);
+                    } finally {
+                        out.close();
+                    }
+                    rowsRestored = restoreFrom(spool);
+                } catch (IOException | android.database.SQLException e) {
+                    Log.e(LOG_TAG, "Weather restore failed, nothing was changed", e);
+                    error = e.toString();
+                } finally {
+                    if (spool != null) {
+                        spool.delete();
+                    }
+                    closeRestorePipe(pipe[0], error);
+                }
+
+                if (rowsRestored != 0) {
+                    mQueryCache.invalidate(WeatherQueryCache.TABLE_WEATHER |
+                            WeatherQueryCache.TABLE_LOCATION | WeatherQueryCache.TABLE_CURRENT |
+                            WeatherQueryCache.TABLE_HISTORY);
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.BASE_CONTENT_URI, null);
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    // Restores a backup that has been read in full, in a single transaction
+    private int restoreFrom(File backup) throws IOException {
+        InputStream in = new FileInputStream(backup);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int rowsRestored = WeatherBackup.restore(db, in);
+            db.setTransactionSuccessful();
+            return rowsRestored;
+        } finally {
+            db.endTransaction();
+            in.close();
+        }
+    }
+
+    // A reliable pipe lets the read end report a failed restore back to the writer
+    private static ParcelFileDescriptor[] createRestorePipe() throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return ParcelFileDescriptor.createReliablePipe();
+        }
+        return ParcelFileDescriptor.createPipe();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void closeRestorePipe(ParcelFileDescriptor readSide, String error) {
+        try {
+            if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                readSide.closeWithError(error);
+            } else {
+                readSide.close();
+            }
+        } catch (IOException e) {
+            // The writer has gone already
+        }
     }
 
     /*
@@ -226,14 +1196,15 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        toDatabaseValues(values));
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -248,15 +1219,31 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case CURRENT: {
+                // The table replaces on conflict, so this is how the sync adapter refreshes the
+                // current conditions of a location it already has a row for.
+                long _id = db.insert(WeatherContract.CurrentEntry.TABLE_NAME, null,
+                        toDatabaseValues(values));
+                if ( _id > 0 )
+                    returnUri = WeatherContract.CurrentEntry.buildCurrentLocation(values.getAsString(
+                            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING));
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        mQueryCache.invalidate(getWrittenTables(match));
         getContext().getContentResolver().notifyChange(uri, null);
+        mMetrics.record(ProviderMetrics.OP_INSERT, getRouteName(match), uri, Binder.getCallingUid(),
+                start, 1, 0);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
@@ -270,53 +1257,94 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Weather, current conditions and history can't outlive the location they
+                // belong to
+                if (rowsDeleted != 0 && db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        sWeatherWithoutLocationSelection, null) != 0) {
+                    mQueryCache.invalidate(WeatherQueryCache.TABLE_WEATHER);
+                }
+                if (rowsDeleted != 0 && db.delete(WeatherContract.CurrentEntry.TABLE_NAME,
+                        sCurrentWithoutLocationSelection, null) != 0) {
+                    mQueryCache.invalidate(WeatherQueryCache.TABLE_CURRENT);
+                }
+                if (rowsDeleted != 0 && db.delete(WeatherContract.HistoryEntry.TABLE_NAME,
+                        sHistoryWithoutLocationSelection, null) != 0) {
+                    mQueryCache.invalidate(WeatherQueryCache.TABLE_HISTORY);
+                }
+                break;
+            case CURRENT:
+                rowsDeleted = db.delete(
+                        WeatherContract.CurrentEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            mQueryCache.invalidate(getWrittenTables(match));
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        mMetrics.record(ProviderMetrics.OP_DELETE, getRouteName(match), uri, Binder.getCallingUid(),
+                start, rowsDeleted, 0);
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+    /**
+     * Normalizes the date of the caller's values in place, so they match what a query will hand
+     * back, and returns the values to write, with the date as a day since the epoch.
+     */
+    private static ContentValues toDatabaseValues(ContentValues values) {
+        if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            return values;
         }
+        long epochDay = WeatherContract.toEpochDay(
+                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.fromEpochDay(epochDay));
+        ContentValues databaseValues = new ContentValues(values);
+        databaseValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, epochDay);
+        return databaseValues;
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                        toDatabaseValues(values), selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case CURRENT:
+                rowsUpdated = db.update(WeatherContract.CurrentEntry.TABLE_NAME,
+                        toDatabaseValues(values), selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
+            mQueryCache.invalidate(getWrittenTables(match));
             getContext().getContentResolver().notifyChange(uri, null);
         }
+        mMetrics.record(ProviderMetrics.OP_UPDATE, getRouteName(match), uri, Binder.getCallingUid(),
+                start, rowsUpdated, 0);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
@@ -325,8 +1353,8 @@ public class WeatherProvider extends ContentProvider {
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                                toDatabaseValues(value));
                         if (_id != -1) {
                             returnCount++;
                         }
@@ -335,9 +1363,13 @@ public class WeatherProvider extends ContentProvider {
                 } finally {
                     db.endTransaction();
                 }
+                mQueryCache.invalidate(WeatherQueryCache.TABLE_WEATHER);
                 getContext().getContentResolver().notifyChange(uri, null);
+                mMetrics.record(ProviderMetrics.OP_BULK_INSERT, getRouteName(match), uri,
+                        Binder.getCallingUid(), start, returnCount, 0);
                 return returnCount;
             default:
+                // Goes through insert, which records each row
                 return super.bulkInsert(uri, values);
         }
     }
@@ -348,6 +1380,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mQueryCache.clear();
         mOpenHelper.close();
         super.shutdown();
     }
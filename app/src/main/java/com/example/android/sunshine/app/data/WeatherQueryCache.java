@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A small in-process LRU cache of query results for the {@link WeatherProvider}.
+ *
+ * Results are kept as a filled {@link CursorWindow}, with dates already converted back to
+ * milliseconds.  Every hit hands out a new cursor over that same window, so a copy costs one
+ * object and a reference count rather than a re-run of the join.  Each entry remembers which
+ * tables it was read from and writes to a table only drop the entries that depend on it.
+ */
+class WeatherQueryCache {
+
+    // Table bits used to tag entries, so that a write only invalidates what it can affect.
+    static final int TABLE_WEATHER = 1;
+    static final int TABLE_LOCATION = 1 << 1;
+    static final int TABLE_CURRENT = 1 << 2;
+    static final int TABLE_HISTORY = 1 << 3;
+
+    // The same few queries are repeated by the list, widgets, Muzei, notification and watch face,
+    // so this doesn't need to be large.
+    static final int DEFAULT_MAX_BYTES = 128 * 1024;
+
+    // Anything bigger than this isn't one of the repeated "today onward" queries, and isn't
+    // worth pinning a window for.
+    private static final int MAX_CACHEABLE_ROWS = 64;
+
+    private final LruCache<String, Entry> mEntries;
+
+    // Bumped on every invalidation.  A query only gets cached if no write happened while it was
+    // running, otherwise we could put a result back that was already stale.
+    private long mGeneration;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private int mInvalidations;
+
+    WeatherQueryCache(int maxBytes) {
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.sizeBytes;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue,
+                                        Entry newValue) {
+                if (evicted) {
+                    mEvictions++;
+                }
+                oldValue.window.releaseReference();
+            }
+        };
+    }
+
+    static String buildKey(int match, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        return new StringBuilder()
+                .append(match).append('|')
+                .append(uri).append('|')
+                .append(Arrays.toString(projection)).append('|')
+                .append(selection).append('|')
+                .append(Arrays.toString(selectionArgs)).append('|')
+                .append(sortOrder)
+                .toString();
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns a new cursor over the cached result for this key, or null if there isn't one.
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new CachedCursor(entry.columns, entry.window);
+    }
+
+    /**
+     * Takes ownership of a freshly queried cursor.  If the result can be cached, the window is
+     * kept, the original cursor is closed and a copy is returned in its place.  Otherwise the
+     * original cursor is returned untouched.
+     *
+     * A cursor that isn't backed by a window of its own, like the provider's date converting
+     * wrapper, is copied into a new window once, so that hits don't have to convert again.
+     *
+     * @param generation The value of {@link #getGeneration()} from before the query ran.
+     */
+    Cursor put(String key, int tables, long generation, Cursor cursor) {
+        if (generation != getGeneration()) {
+            return cursor;
+        }
+        // getCount() forces the window to be filled, which is where the query actually runs, so
+        // it and the copy happen outside the lock.  Other queries don't wait behind this one.
+        int count = cursor.getCount();
+        if (count > MAX_CACHEABLE_ROWS) {
+            return cursor;
+        }
+        CursorWindow window;
+        if (cursor instanceof AbstractWindowedCursor) {
+            window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window == null || window.getStartPosition() != 0 || window.getNumRows() != count) {
+                return cursor;
+            }
+            // One reference for the cache itself; closing the original cursor drops its own.
+            window.acquireReference();
+        } else {
+            // A new window starts out with the one reference the cache keeps.
+            window = copyToWindow(cursor);
+            if (window == null) {
+                return cursor;
+            }
+        }
+        Entry entry = new Entry(cursor.getColumnNames(), window, tables);
+
+        Cursor cached;
+        synchronized (this) {
+            if (generation != mGeneration) {
+                // A write came in while the query ran, so the result may already be stale
+                cached = null;
+            } else {
+                mEntries.put(key, entry);
+                // Made under the lock, before an invalidation could release the window
+                cached = new CachedCursor(entry.columns, window);
+            }
+        }
+        if (cached == null) {
+            window.releaseReference();
+            return cursor;
+        }
+        cursor.close();
+        return cached;
+    }
+
+    /**
+     * Copies every row of the cursor into a new window, or returns null if they don't fit.
+     */
+    @SuppressWarnings("deprecation") // CursorWindow(String) is only available from API 15
+    private static CursorWindow copyToWindow(Cursor cursor) {
+        CursorWindow window = new CursorWindow(false);
+        int columnCount = cursor.getColumnCount();
+        window.setNumColumns(columnCount);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            int row = cursor.getPosition();
+            boolean copied = window.allocRow();
+            for (int column = 0; copied && column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        copied = window.putNull(row, column);
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        copied = window.putLong(cursor.getLong(column), row, column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        copied = window.putDouble(cursor.getDouble(column), row, column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        copied = window.putBlob(cursor.getBlob(column), row, column);
+                        break;
+                    default:
+                        copied = window.putString(cursor.getString(column), row, column);
+                }
+            }
+            if (!copied) {
+                window.close();
+                return null;
+            }
+        }
+        cursor.moveToPosition(-1);
+        return window;
+    }
+
+    /**
+     * Drops every entry that was read from any of the given tables.
+     */
+    synchronized void invalidate(int tables) {
+        mGeneration++;
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            if ((cached.getValue().tables & tables) != 0) {
+                mEntries.remove(cached.getKey());
+                mInvalidations++;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    synchronized Bundle getStats() {
+        Bundle stats = new Bundle();
+        int lookups = mHits + mMisses;
+        stats.putInt(WeatherContract.QueryCacheStats.HITS, mHits);
+        stats.putInt(WeatherContract.QueryCacheStats.MISSES, mMisses);
+        stats.putFloat(WeatherContract.QueryCacheStats.HIT_RATE,
+                lookups == 0 ? 0f : (float) mHits / lookups);
+        stats.putInt(WeatherContract.QueryCacheStats.EVICTIONS, mEvictions);
+        stats.putInt(WeatherContract.QueryCacheStats.INVALIDATIONS, mInvalidations);
+        stats.putInt(WeatherContract.QueryCacheStats.ENTRIES, mEntries.snapshot().size());
+        stats.putInt(WeatherContract.QueryCacheStats.SIZE_BYTES, mEntries.size());
+        stats.putInt(WeatherContract.QueryCacheStats.MAX_SIZE_BYTES, mEntries.maxSize());
+        return stats;
+    }
+
+    // CursorWindow doesn't tell us how much of its allocation is used, so add up the
+    // values instead.  Numbers take 8 bytes, strings and blobs their length.
+    static int estimateSize(CursorWindow window, int columnCount) {
+        int size = 0;
+        int rows = window.getNumRows();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columnCount; column++) {
+                switch (window.getType(row, column)) {
+                    case Cursor.FIELD_TYPE_STRING:
+                        size += window.getString(row, column).length() * 2;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        size += window.getBlob(row, column).length;
+                        break;
+                    default:
+                        size += 8;
+                }
+            }
+        }
+        return Math.max(size, 1);
+    }
+
+    private static final class Entry {
+        final String[] columns;
+        final CursorWindow window;
+        final int tables;
+        final int sizeBytes;
+
+        Entry(String[] columns, CursorWindow window, int tables) {
+            this.columns = columns;
+            this.window = window;
+            this.tables = tables;
+            this.sizeBytes = estimateSize(window, columns.length);
+        }
+    }
+
+    /**
+     * A read-only cursor over a shared, already filled window.  Closing it only drops its own
+     * reference, so the cache and any other copies keep working.
+     */
+    private static final class CachedCursor extends AbstractWindowedCursor {
+        private final String[] mColumns;
+
+        CachedCursor(String[] columns, CursorWindow window) {
+            mColumns = columns;
+            window.acquireReference();
+            setWindow(window);
+        }
+
+        @Override
+        public int getCount() {
+            return mWindow != null ? mWindow.getNumRows() : 0;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+    }
+}
@@ -31,8 +31,8 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.CurrentEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentEntry.COLUMN_SHORT_DESC
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
@@ -55,10 +55,9 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = Utility.buildCurrentWeatherUri(this);
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                null, null);
         if (cursor.moveToFirst()) {
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             String desc = cursor.getString(INDEX_SHORT_DESC);
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Runs the weather database maintenance once a day, while the device is idle and charging, so
+ * that the full vacuum it needs the first time never gets in the user's way.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineMaintenanceService extends JobService {
+    private static final String LOG_TAG = SunshineMaintenanceService.class.getSimpleName();
+
+    private static final int MAINTENANCE_JOB_ID = 3005;
+    private static final long MAINTENANCE_INTERVAL = 1000 * 60 * 60 * 24;
+
+    private AsyncTask<JobParameters, Void, Bundle> mMaintenanceTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mMaintenanceTask = new AsyncTask<JobParameters, Void, Bundle>() {
+            @Override
+            protected Bundle doInBackground(JobParameters... params) {
+                return getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+            }
+
+            @Override
+            protected void onPostExecute(Bundle stats) {
+                Log.d(LOG_TAG, "Database is " +
+                        stats.getLong(WeatherContract.DatabaseStats.SIZE_BYTES) + " bytes, " +
+                        stats.getLong(WeatherContract.DatabaseStats.FREE_PAGES) + " pages free");
+                jobFinished(params, false);
+            }
+        };
+        mMaintenanceTask.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The maintenance can't be interrupted once it's started, and will get another chance
+        // tomorrow anyway
+        mMaintenanceTask.cancel(false);
+        return false;
+    }
+
+    /**
+     * Schedules the daily maintenance, unless it's already scheduled.  The job survives reboots,
+     * so this only has to do something the first time the app runs.
+     */
+    public static void scheduleMaintenance(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == MAINTENANCE_JOB_ID) {
+                return;
+            }
+        }
+
+        JobInfo job = new JobInfo.Builder(MAINTENANCE_JOB_ID,
+                new ComponentName(context, SunshineMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(MAINTENANCE_INTERVAL)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+}
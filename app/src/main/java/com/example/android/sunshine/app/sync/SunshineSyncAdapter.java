@@ -2,7 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -28,14 +27,14 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArt;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -79,10 +78,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.CurrentEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentEntry.COLUMN_MAX_TEMP,
+            WeatherContract.CurrentEntry.COLUMN_MIN_TEMP,
+            WeatherContract.CurrentEntry.COLUMN_SHORT_DESC
     };
 
     // these indices must match the projection
@@ -307,6 +306,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
             long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            setLocationId(getContext(), locationSetting, locationId);
 
             // Insert the new weather information into the database
             Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
@@ -319,14 +319,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            // we start at the day returned by local time. Otherwise this is a mess.  Counting in
+            // days since the epoch, each following forecast is just one more.
+            long startDay = WeatherContract.toEpochDay(System.currentTimeMillis());
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -345,8 +340,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Get the JSON object representing the day
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = WeatherContract.fromEpochDay(startDay + i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -389,10 +383,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 cVVector.toArray(cvArray);
                 getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                // The first day returned is always today, so that's our current conditions row
+                addCurrentConditions(locationId, locationSetting, cityName, cityLatitude,
+                        cityLongitude, cvArray[0]);
+
+                // roll old data up into the monthly history, so we don't build up an endless
+                // number of daily rows
+                getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_ARCHIVE_WEATHER, null, null);
 
                 updateWidgets();
                 updateMuzei();
@@ -421,8 +419,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private void updateSunshineWatchFace(){
         Context context = getContext();
         //get data from content provider
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+        Uri weatherUri = Utility.buildCurrentWeatherUri(context);
         Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
 
         if (cursor.moveToFirst()) {
@@ -470,21 +467,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
+        if ( SunshineSettings.get(context).areNotificationsEnabled() ) {
 
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                Uri weatherUri = Utility.buildCurrentWeatherUri(context);
 
                 // we'll query our contentProvider, as always
                 Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
@@ -500,26 +491,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
                     String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
+                    // Retrieve the large icon.  It's loaded at the size the app shows today's art
+                    // at, like the rest of the art, and the notification scales it to fit.
+                    int artSize = WeatherArt.getArtSize(context);
                     Bitmap largeIcon;
                     try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
+                        largeIcon = WeatherArt.loadBitmap(context, artUrl)
                                 .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
+                                .into(artSize, artSize).get();
                     } catch (InterruptedException | ExecutionException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
@@ -624,6 +603,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         return locationId;
     }
 
+    /**
+     * Helper method to refresh the denormalized current conditions row of a location, so that
+     * readers of today's weather don't have to join the weather and location tables.
+     *
+     * @param locationId The row ID of the location, which is also the ID of its current row.
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @param todayValues The weather values inserted for today.
+     */
+    void addCurrentConditions(long locationId, String locationSetting, String cityName,
+                              double lat, double lon, ContentValues todayValues) {
+        ContentValues currentValues = new ContentValues(todayValues);
+        currentValues.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        currentValues.put(WeatherContract.CurrentEntry._ID, locationId);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_CITY_NAME, cityName);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_COORD_LAT, lat);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_COORD_LONG, lon);
+
+        getContext().getContentResolver().insert(WeatherContract.CurrentEntry.CONTENT_URI,
+                currentValues);
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -713,6 +717,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+
+        // Keeping the database compact needs the device to tell us when it's idle and charging,
+        // which only the job scheduler can do
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            SunshineMaintenanceService.scheduleMaintenance(context);
+        }
+    }
+
+    /**
+     * Remembers the location table row of the location we just synced, so readers can use the
+     * location id keyed URIs.  The setting is stored with it, so a stale id is never used for a
+     * different location.
+     */
+    static private void setLocationId(Context c, String locationSetting, long locationId){
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putLong(c.getString(R.string.pref_location_id_key), locationId);
+        spe.putString(c.getString(R.string.pref_location_id_setting_key), locationSetting);
+        spe.commit();
     }
 
     /**
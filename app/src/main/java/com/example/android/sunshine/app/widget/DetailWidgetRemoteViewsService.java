@@ -12,10 +12,10 @@ import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArt;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.util.concurrent.ExecutionException;
@@ -62,9 +62,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                Uri weatherForLocationUri = Utility.buildWeatherUriWithStartDate(
+                        DetailWidgetRemoteViewsService.this, System.currentTimeMillis());
                 data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
@@ -97,15 +96,19 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
                 Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
+                SunshineSettings settings =
+                        SunshineSettings.get(DetailWidgetRemoteViewsService.this);
+                if ( !settings.usingLocalGraphics() ) {
+                    String weatherArtResourceUrl =
+                            Utility.getArtUrlForWeatherCondition(settings, weatherId);
                     try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
+                        // At the size of the icons on the forecast rows, which the widget's are
+                        int iconSize =
+                                WeatherArt.getIconSize(DetailWidgetRemoteViewsService.this);
+                        weatherArtImage = WeatherArt.loadBitmap(
+                                DetailWidgetRemoteViewsService.this, weatherArtResourceUrl)
                                 .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
+                                .into(iconSize, iconSize).get();
                     } catch (InterruptedException | ExecutionException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
                     }
@@ -39,10 +39,10 @@ import com.example.android.sunshine.app.data.WeatherContract;
  */
 public class TodayWidgetIntentService extends IntentService {
     private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.CurrentEntry.COLUMN_WEATHER_ID,
+            WeatherContract.CurrentEntry.COLUMN_SHORT_DESC,
+            WeatherContract.CurrentEntry.COLUMN_MAX_TEMP,
+            WeatherContract.CurrentEntry.COLUMN_MIN_TEMP
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
@@ -62,11 +62,9 @@ public class TodayWidgetIntentService extends IntentService {
                 TodayWidgetProvider.class));
 
         // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = Utility.buildCurrentWeatherUri(this);
         Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                null, null);
         if (data == null) {
             return;
         }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * The kinds of weather Sunshine has art for.  {@link WeatherConditions} maps the OpenWeatherMap
+ * condition ids onto them.
+ *
+ * The phone and the watch each ship their own icons, so each keeps a table of its drawables
+ * indexed by {@link #ordinal()}.  Only add to the end, and add to those tables too.
+ */
+public enum WeatherCondition {
+    STORM("storm",
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg"),
+    LIGHT_RAIN("light_rain",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg"),
+    RAIN("rain",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg"),
+    SNOW("snow",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG"),
+    FOG("fog",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg"),
+    // Drawn as a storm, but Muzei has a picture of its own
+    TORNADO("storm",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"),
+    CLEAR("clear",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg"),
+    LIGHT_CLOUDS("light_clouds",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg"),
+    CLOUDS("clouds",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+
+    private final String mArtName;
+    private final String mImageUrl;
+
+    WeatherCondition(String artName, String imageUrl) {
+        mArtName = artName;
+        mImageUrl = imageUrl;
+    }
+
+    /**
+     * The name the art packs use for this condition's art, which goes in place of the %s of the
+     * art pack's URL.
+     */
+    public String getArtName() {
+        return mArtName;
+    }
+
+    /**
+     * The URL of the photo Muzei shows for this condition.
+     */
+    public String getImageUrl() {
+        return mImageUrl;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import android.content.Context;
+
+/**
+ * Looks up the OpenWeatherMap condition ids, based on the codes found at:
+ * http://openweathermap.org/weather-conditions
+ *
+ * The ids all have three digits, so every one of them gets a slot in a table built when the
+ * class loads, and a lookup is a single array read rather than a walk down the ranges.
+ */
+public final class WeatherConditions {
+
+    private static final int MAX_WEATHER_ID = 999;
+
+    private static final WeatherCondition[] sConditions =
+            new WeatherCondition[MAX_WEATHER_ID + 1];
+    private static final int[] sStringIds = new int[MAX_WEATHER_ID + 1];
+
+    static {
+        addConditions(200, 232, WeatherCondition.STORM);
+        addConditions(300, 321, WeatherCondition.LIGHT_RAIN);
+        addConditions(500, 504, WeatherCondition.RAIN);
+        addConditions(511, 511, WeatherCondition.SNOW);
+        addConditions(520, 531, WeatherCondition.RAIN);
+        addConditions(600, 622, WeatherCondition.SNOW);
+        addConditions(701, 761, WeatherCondition.FOG);
+        addConditions(781, 781, WeatherCondition.TORNADO);
+        addConditions(800, 800, WeatherCondition.CLEAR);
+        addConditions(801, 801, WeatherCondition.LIGHT_CLOUDS);
+        addConditions(802, 804, WeatherCondition.CLOUDS);
+
+        addStrings(200, 232, R.string.condition_2xx);
+        addStrings(300, 321, R.string.condition_3xx);
+        addString(500, R.string.condition_500);
+        addString(501, R.string.condition_501);
+        addString(502, R.string.condition_502);
+        addString(503, R.string.condition_503);
+        addString(504, R.string.condition_504);
+        addString(511, R.string.condition_511);
+        addString(520, R.string.condition_520);
+        addString(521, R.string.condition_521);
+        addString(522, R.string.condition_522);
+        addString(531, R.string.condition_531);
+        addString(600, R.string.condition_600);
+        addString(601, R.string.condition_601);
+        addString(602, R.string.condition_602);
+        addString(611, R.string.condition_611);
+        addString(612, R.string.condition_612);
+        addString(615, R.string.condition_615);
+        addString(616, R.string.condition_616);
+        addString(620, R.string.condition_620);
+        addString(621, R.string.condition_621);
+        addString(622, R.string.condition_622);
+        addString(701, R.string.condition_701);
+        addString(711, R.string.condition_711);
+        addString(721, R.string.condition_721);
+        addString(731, R.string.condition_731);
+        addString(741, R.string.condition_741);
+        addString(751, R.string.condition_751);
+        addString(761, R.string.condition_761);
+        addString(762, R.string.condition_762);
+        addString(771, R.string.condition_771);
+        addString(781, R.string.condition_781);
+        addString(800, R.string.condition_800);
+        addString(801, R.string.condition_801);
+        addString(802, R.string.condition_802);
+        addString(803, R.string.condition_803);
+        addString(804, R.string.condition_804);
+        addString(900, R.string.condition_900);
+        addString(901, R.string.condition_901);
+        addString(902, R.string.condition_902);
+        addString(903, R.string.condition_903);
+        addString(904, R.string.condition_904);
+        addString(905, R.string.condition_905);
+        addString(906, R.string.condition_906);
+        addString(951, R.string.condition_951);
+        addString(952, R.string.condition_952);
+        addString(953, R.string.condition_953);
+        addString(954, R.string.condition_954);
+        addString(955, R.string.condition_955);
+        addString(956, R.string.condition_956);
+        addString(957, R.string.condition_957);
+        addString(958, R.string.condition_958);
+        addString(959, R.string.condition_959);
+        addString(960, R.string.condition_960);
+        addString(961, R.string.condition_961);
+        addString(962, R.string.condition_962);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void addConditions(int firstId, int lastId, WeatherCondition condition) {
+        for (int id = firstId; id <= lastId; id++) {
+            sConditions[id] = condition;
+        }
+    }
+
+    private static void addStrings(int firstId, int lastId, int stringId) {
+        for (int id = firstId; id <= lastId; id++) {
+            sStringIds[id] = stringId;
+        }
+    }
+
+    private static void addString(int id, int stringId) {
+        sStringIds[id] = stringId;
+    }
+
+    /**
+     * Returns the kind of weather of a condition id, or null if there's no art for it.
+     */
+    public static WeatherCondition get(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_WEATHER_ID) {
+            return null;
+        }
+        return sConditions[weatherId];
+    }
+
+    /**
+     * Returns the resource id of the description of a condition id, or 0 if there's none.
+     */
+    public static int getStringId(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_WEATHER_ID) {
+            return 0;
+        }
+        return sStringIds[weatherId];
+    }
+
+    /**
+     * Returns the description of a condition id, which names the id itself if it's unknown.
+     */
+    public static String getString(Context context, int weatherId) {
+        int stringId = getStringId(weatherId);
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+}
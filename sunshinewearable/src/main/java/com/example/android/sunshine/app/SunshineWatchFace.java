@@ -38,6 +38,9 @@ import android.support.wearable.watchface.WatchFaceStyle;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherCondition;
+import com.example.android.sunshine.shared.WeatherConditions;
+
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -68,6 +71,19 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    // The icons of each WeatherCondition, in the order they're declared
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -174,33 +190,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         private void updateWeathericon() {
             Resources resources = SunshineWatchFace.this.getResources();
-            Drawable weatherBitmap;
-            
-            if (mWeatherIconId >= 200 && mWeatherIconId <= 232) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_storm, null);
-            } else if (mWeatherIconId >= 300 && mWeatherIconId <= 321) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_light_rain, null);
-            } else if (mWeatherIconId >= 500 && mWeatherIconId <= 504) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_rain, null);
-            } else if (mWeatherIconId == 511) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_snow, null);
-            } else if (mWeatherIconId >= 520 && mWeatherIconId <= 531) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_rain, null);
-            } else if (mWeatherIconId >= 600 && mWeatherIconId <= 622) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_snow, null);
-            } else if (mWeatherIconId >= 701 && mWeatherIconId <= 761) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_fog, null);
-            } else if (mWeatherIconId == 761 || mWeatherIconId == 781) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_storm, null);
-            } else if (mWeatherIconId == 800) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_clear, null);
-            } else if (mWeatherIconId == 801) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_light_clouds, null);
-            } else if (mWeatherIconId >= 802 && mWeatherIconId <= 804) {
-                weatherBitmap = resources.getDrawable( R.drawable.ic_cloudy, null);
-            } else { //default
-                weatherBitmap = resources.getDrawable( R.drawable.ic_clear, null);
-            }
+            WeatherCondition condition = WeatherConditions.get(mWeatherIconId);
+            // Anything without an icon of its own gets a clear sky
+            int iconId = condition == null ?
+                    R.drawable.ic_clear : ICON_RESOURCES[condition.ordinal()];
+            Drawable weatherBitmap = resources.getDrawable(iconId, null);
 
             mWeatherIcon = ((BitmapDrawable) weatherBitmap).getBitmap();
         }